@@ -134,7 +134,7 @@ public class Main{
             int width = promptInt("Enter width for the map (must be greater than 0)");
             int length = promptInt("Enter length for the map (must be greater than 0)");
 
-            exerciser.addMap(Map.getInstance(width, length));
+            exerciser.addMap(new Map(width, length));
             showMap(false);
         }
         else
@@ -344,13 +344,12 @@ public class Main{
     }
 
     /**
-     * Removes the {@link Map} singleton from the system.
+     * Removes the {@link Map} of the exerciser from the system.
      * Prints out to standard output stream (System.out).
      */
     private static void removeMap() {
         if(exerciser.getMap() != null) {
             exerciser.removeMap(); // removing reference in the exerciser
-            Map.destroyInstance();
             System.out.println("Map removed successfully");
         }
         else System.out.println("No map to remove.");
@@ -0,0 +1,388 @@
+package ca.umanitoba.cs.veranyan.input;
+
+import ca.umanitoba.cs.veranyan.model.Activity;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.map.Map;
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Imports recorded rides from GPX and CSV track files as {@link Activity Activities} on a {@link Map}.
+ * Each track point is placed on the Map grid by its distance from an origin, the point of the Earth at the
+ * top-left corner (0, 0) of the Map: x grows eastwards and y southwards, one step per 10 meters.
+ * <p>
+ * A GPX file is read from the {@code trkpt} elements of all its tracks, each with {@code lat} and {@code lon}
+ * attributes and a {@code time} element. A CSV file has a header row naming a {@code time}, a {@code latitude}
+ * (or {@code lat}) and a {@code longitude} (or {@code lon}, {@code lng}) column, and one point per row; quoted
+ * fields are not supported. Times are ISO-8601 date-times; those with an offset are converted to the system time zone.
+ * @implNote files are read as streams, point by point, and each point only extends the Route being built, so
+ * the memory used does not grow with the number of points, only with the number of segments of the Route.
+ * Consecutive points in different cells are joined by a horizontal then a vertical move.
+ */
+public class TrackImporter {
+    private static final int METERS_PER_STEP = 10; // a step is one coordinate on the Map grid, as in Activity
+    private static final double METERS_PER_DEGREE = 6_371_000 * Math.PI / 180; // along a meridian of a spherical Earth
+
+    private final Map map; // the Map the Activities are added to
+    private final Gear gear; // the Gear of the imported Activities
+    private final double originLatitude; // latitude of the Map point (0, 0), in degrees
+    private final double originLongitude; // longitude of the Map point (0, 0), in degrees
+    private final double stepsPerDegreeLongitude; // east-west steps per degree of longitude, at the origin latitude
+
+    /**
+     * Constructor for TrackImporter.
+     * @param map the Map to add the imported Activities to. Must not be {@code null}.
+     * @param gear the Gear of the imported Activities. Must not be {@code null}.
+     * @param originLatitude the latitude of the Map point (0, 0), in degrees. Must be from -90 to 90 exclusive.
+     * @param originLongitude the longitude of the Map point (0, 0), in degrees. Must be from -180 to 180 inclusive.
+     */
+    public TrackImporter(Map map, Gear gear, double originLatitude, double originLongitude){
+        this.map = map;
+        this.gear = gear;
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        // meridians get closer away from the equator; the Map is assumed small enough for one scale to hold
+        this.stepsPerDegreeLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude)) / METERS_PER_STEP;
+
+        checkTrackImporter();
+    }
+
+    /**
+     * Imports one track file as an Activity and adds it to the Map. A track starting at the same time as an
+     * Activity on the Map, which the Map would not add, is rejected.
+     * @param path the GPX ({@code .gpx}) or CSV ({@code .csv}) file to import. Must not be {@code null}.
+     * @return the Activity added to the Map. Must not be {@code null}.
+     * @throws IOException if the file cannot be read.
+     */
+    public Activity importTrack(Path path) throws IOException {
+        checkTrackImporter();
+
+        Activity activity = readTrack(path);
+        checkStarts(List.of(path), new Activity[]{activity});
+        map.addActivity(activity);
+
+        checkTrackImporter();
+
+        return activity;
+    }
+
+    /**
+     * Imports track files as Activities and adds them to the Map, either all or none of them. Tracks starting
+     * at the same time as each other or as an Activity on the Map, which the Map would not add, are rejected.
+     * @param paths the GPX ({@code .gpx}) or CSV ({@code .csv}) files to import. Must not be {@code null}.
+     * @return the Activities added to the Map, in the order of paths. Must not be {@code null}.
+     * @throws IOException if a file cannot be read.
+     * @implNote the files are read in parallel on the common fork-join pool, then added to the Map with
+     * {@link Map#addActivities(java.util.Collection)}, which validates them all before adding any.
+     * If files fail to be read, the failure of the first of them in the order of paths is thrown.
+     */
+    public List<Activity> importTracks(List<Path> paths) throws IOException {
+        checkTrackImporter();
+        Preconditions.checkNotNull(paths, "paths cannot be null.");
+
+        Activity[] activities = new Activity[paths.size()];
+        Exception[] failures = new Exception[paths.size()];
+        ForkJoinPool.commonPool().invoke(new ImportTask(paths, activities, failures, 0, activities.length));
+
+        // failures are kept per file and thrown as they are, in the order of paths
+        Exception failure = null;
+        for(int i = 0; i < failures.length && failure == null; i++)
+            failure = failures[i];
+        if(failure instanceof IOException ioFailure)
+            throw ioFailure;
+        else if(failure != null)
+            throw (RuntimeException) failure;
+
+        checkStarts(paths, activities);
+        List<Activity> imported = Arrays.asList(activities);
+        map.addActivities(imported);
+
+        checkTrackImporter();
+
+        return imported;
+    }
+
+    /**
+     * Ensures every imported Activity starts at a time no other Activity does, so the Map adds all of them.
+     * @param paths the imported files. Must not be {@code null}.
+     * @param activities the Activity read from each file, by index. Must not be {@code null}.
+     */
+    private void checkStarts(List<Path> paths, Activity[] activities){
+        HashSet<LocalDateTime> starts = new HashSet<>();
+
+        for(int i = 0; i < activities.length; i++) {
+            LocalDateTime start = activities[i].getStart();
+            Preconditions.checkState(starts.add(start) && map.activitiesBetween(start, start.plusNanos(1)).isEmpty(),
+                    "track starts at the same time as another activity: " + paths.get(i) + ".");
+        }
+    }
+
+    /**
+     * Reads the files of a range of paths, splitting the range in halves until one file is left.
+     */
+    private final class ImportTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> paths; // all the paths to read
+        private final Activity[] activities; // the Activity read from each path, by index
+        private final Exception[] failures; // the failure to read each path, by index
+        private final int from; // the index of the first path of the range
+        private final int to; // the index after the last path of the range
+
+        /**
+         * @param paths all the paths to read. Must not be {@code null}.
+         * @param activities the array to store the Activity of each path in. Must not be {@code null}.
+         * @param failures the array to store the failure to read each path in. Must not be {@code null}.
+         * @param from the index of the first path of the range.
+         * @param to the index after the last path of the range.
+         */
+        private ImportTask(List<Path> paths, Activity[] activities, Exception[] failures, int from, int to) {
+            this.paths = paths;
+            this.activities = activities;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from == 1) {
+                try {
+                    activities[from] = readTrack(paths.get(from));
+                }
+                catch(IOException | RuntimeException e) {
+                    failures[from] = e;
+                }
+            }
+            else if(to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ImportTask(paths, activities, failures, from, middle),
+                        new ImportTask(paths, activities, failures, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Reads one track file as an Activity, without adding it to the Map.
+     * @param path the GPX ({@code .gpx}) or CSV ({@code .csv}) file to read. Must not be {@code null}.
+     * @return the Activity of the track, ended at the time of its last point. Must not be {@code null}.
+     * @throws IOException if the file cannot be read.
+     */
+    private Activity readTrack(Path path) throws IOException {
+        Preconditions.checkNotNull(path, "path cannot be null.");
+
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        Preconditions.checkState(name.endsWith(".gpx") || name.endsWith(".csv"),
+                "track format is not supported: " + path + ".");
+
+        TrackBuilder track = new TrackBuilder();
+        if(name.endsWith(".gpx"))
+            readGpx(path, track);
+        else readCsv(path, track);
+
+        Preconditions.checkState(track.route != null, "track has no points: " + path + ".");
+
+        return new Activity(gear, track.route, track.start, track.end);
+    }
+
+    /**
+     * Reads the points of a GPX file with a streaming XML parser.
+     * @param path the GPX file to read. Must not be {@code null}.
+     * @param track the track to add the points to. Must not be {@code null}.
+     * @throws IOException if the file cannot be read or is not well-formed XML.
+     */
+    private void readGpx(Path path, TrackBuilder track) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // a track file has no reason to reference a DTD or another file
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        try(InputStream input = Files.newInputStream(path)) {
+            XMLStreamReader xml = factory.createXMLStreamReader(input);
+            try {
+                boolean inPoint = false;
+                double latitude = 0;
+                double longitude = 0;
+                LocalDateTime time = null;
+
+                while(xml.hasNext()) {
+                    int event = xml.next();
+                    if(event == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("trkpt")) {
+                        inPoint = true;
+                        latitude = parseCoordinate(xml.getAttributeValue(null, "lat"));
+                        longitude = parseCoordinate(xml.getAttributeValue(null, "lon"));
+                        time = null;
+                    }
+                    else if(event == XMLStreamConstants.START_ELEMENT && inPoint && xml.getLocalName().equals("time"))
+                        time = parseTime(xml.getElementText());
+                    else if(event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("trkpt")) {
+                        inPoint = false;
+                        track.addPoint(latitude, longitude, time);
+                    }
+                }
+            }
+            finally {
+                xml.close();
+            }
+        }
+        catch(XMLStreamException e) {
+            throw new IOException("track is not well-formed: " + path + ".", e);
+        }
+    }
+
+    /**
+     * Reads the points of a CSV file line by line.
+     * @param path the CSV file to read. Must not be {@code null}.
+     * @param track the track to add the points to. Must not be {@code null}.
+     * @throws IOException if the file cannot be read.
+     */
+    private void readCsv(Path path, TrackBuilder track) throws IOException {
+        try(BufferedReader input = Files.newBufferedReader(path)) {
+            String header = input.readLine();
+            Preconditions.checkState(header != null, "track has no header: " + path + ".");
+
+            // finding the columns by name
+            int timeColumn = -1;
+            int latitudeColumn = -1;
+            int longitudeColumn = -1;
+            String[] names = header.split(",");
+            for(int i = 0; i < names.length; i++) {
+                String name = names[i].trim().toLowerCase(Locale.ROOT);
+                if(name.equals("time"))
+                    timeColumn = i;
+                else if(name.equals("latitude") || name.equals("lat"))
+                    latitudeColumn = i;
+                else if(name.equals("longitude") || name.equals("lon") || name.equals("lng"))
+                    longitudeColumn = i;
+            }
+            Preconditions.checkState(timeColumn >= 0 && latitudeColumn >= 0 && longitudeColumn >= 0,
+                    "track header must name time, latitude and longitude columns: " + path + ".");
+            int columnsAmount = Math.max(timeColumn, Math.max(latitudeColumn, longitudeColumn)) + 1;
+
+            String line = input.readLine();
+            while(line != null) {
+                // blank lines, such as a trailing one, are skipped
+                if(!line.isBlank()) {
+                    String[] fields = line.split(",", -1);
+                    Preconditions.checkState(fields.length >= columnsAmount, "track row is missing fields: " + line + ".");
+                    track.addPoint(parseCoordinate(fields[latitudeColumn]), parseCoordinate(fields[longitudeColumn]),
+                            parseTime(fields[timeColumn]));
+                }
+                line = input.readLine();
+            }
+        }
+    }
+
+    /**
+     * @param value the text of a latitude or longitude, in degrees. May be {@code null}.
+     * @return the latitude or longitude.
+     */
+    private static double parseCoordinate(String value) {
+        Preconditions.checkState(value != null, "track point has no latitude or longitude.");
+
+        double coordinate;
+        try {
+            coordinate = Double.parseDouble(value.trim());
+        }
+        catch(NumberFormatException e) {
+            throw new IllegalStateException("track point has an invalid latitude or longitude: " + value + ".", e);
+        }
+
+        return coordinate;
+    }
+
+    /**
+     * @param value the text of an ISO-8601 date-time, with or without an offset. Must not be {@code null}.
+     * @return the date-time, in the system time zone if it has an offset. Must not be {@code null}.
+     */
+    private static LocalDateTime parseTime(String value) {
+        LocalDateTime time;
+        try {
+            // parsed once and then checked for an offset; trying each type in turn throws for every local time
+            TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parse(value.trim());
+            time = parsed.isSupported(ChronoField.OFFSET_SECONDS) ?
+                    OffsetDateTime.from(parsed).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime() :
+                    LocalDateTime.from(parsed);
+        }
+        catch(DateTimeException e) {
+            throw new IllegalStateException("track point has an invalid time: " + value + ".", e);
+        }
+
+        return time;
+    }
+
+    /**
+     * The Route and times of a track being read, extended point by point.
+     */
+    private final class TrackBuilder {
+        private Route route; // null until the first point
+        private int lastX; // x-coordinate of the last step of the Route
+        private int lastY; // y-coordinate of the last step of the Route
+        private LocalDateTime start; // the time of the first point
+        private LocalDateTime end; // the time of the last point
+
+        /**
+         * Moves the Route to the cell of a point, creating it at the first point.
+         * @param latitude the latitude of the point, in degrees.
+         * @param longitude the longitude of the point, in degrees.
+         * @param time the time of the point. Must not be {@code null}.
+         */
+        private void addPoint(double latitude, double longitude, LocalDateTime time) {
+            Preconditions.checkState(time != null, "track point has no time.");
+            Preconditions.checkState(latitude >= -90 && latitude <= 90, "latitude is out of range.");
+            Preconditions.checkState(longitude >= -180 && longitude <= 180, "longitude is out of range.");
+
+            // the Route checks that the cell is not before the top-left corner of the Map
+            long x = Math.round((longitude - originLongitude) * stepsPerDegreeLongitude);
+            long y = Math.round((originLatitude - latitude) * METERS_PER_DEGREE / METERS_PER_STEP);
+            Preconditions.checkState(x >= 0 && x <= Integer.MAX_VALUE && y >= 0 && y <= Integer.MAX_VALUE,
+                    "track point is outside of the map.");
+
+            if(route == null) {
+                route = new Route((int) x, (int) y);
+                start = time;
+            }
+            else {
+                // RIGHT = 2, LEFT = 4, DOWN = 3, UP = 1; a point in the same cell adds no move
+                route.move((x > lastX) ? 2 : 4, (int) Math.abs(x - lastX));
+                route.move((y > lastY) ? 3 : 1, (int) Math.abs(y - lastY));
+            }
+            lastX = (int) x;
+            lastY = (int) y;
+            end = time;
+        }
+    }
+
+    /**
+     * Ensures TrackImporter invariants are not violated.
+     */
+    private void checkTrackImporter(){
+        Preconditions.checkNotNull(map, "map cannot be null.");
+        Preconditions.checkNotNull(gear, "gear cannot be null.");
+        Preconditions.checkState(originLatitude > -90 && originLatitude < 90, "origin latitude is out of range.");
+        Preconditions.checkState(originLongitude >= -180 && originLongitude <= 180, "origin longitude is out of range.");
+    }
+}
@@ -0,0 +1,323 @@
+package ca.umanitoba.cs.veranyan.logic;
+
+import ca.umanitoba.cs.veranyan.model.Activity;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.map.Map;
+import com.google.common.base.Preconditions;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Computes {@link ActivitySummary} statistics of the distances and average speeds of the ended
+ * {@link Activity Activities} of a {@link Map} that started within a time range, overall and per {@link Gear}.
+ * Activities that did not end are left out: their distance and average speed are not final.
+ * @implNote the Activities in range are split into chunks of consecutive Activities in start order, which are
+ * processed in parallel on the common fork-join pool in two passes. The first counts and sums the values of
+ * each Gear within each chunk; the second copies the values into one array per statistic, grouped by Gear,
+ * each chunk into its own range, so no chunk waits for another. Each group is then sorted in parallel for
+ * percentiles, and the sorted groups are merged for the overall percentiles. Values are kept in primitive
+ * arrays throughout, and sums are added up chunk by chunk in start order, so the results do not depend on
+ * how the chunks were scheduled. Average speeds are positive, so they are sorted as the bits of their
+ * IEEE 754 representation, which are in the same order and sort as longs, about twice as fast as doubles.
+ */
+public class ActivityStatistics {
+    private static final int CHUNK_SIZE = 4096; // number of Activities processed as one task
+    private static final int METERS_PER_STEP = 10;
+
+    private final Map map;
+
+    /**
+     * The Activities of one chunk and the totals of each Gear they use.
+     */
+    private static final class Chunk {
+        private final int from; // the index of the first Activity of the chunk
+        private final int to; // the index after the last Activity of the chunk
+        private Gear[] gears = new Gear[4]; // the Gear used in the chunk, by local slot
+        private int gearsAmount;
+        private int[] counts = new int[4]; // number of ended Activities of each slot
+        private long[] distanceSums = new long[4]; // sum of their distances
+        private int[] speedCounts = new int[4]; // number of those with a finite average speed
+        private double[] speedSums = new double[4]; // sum of their average speeds
+        private int[] globalGears; // the index of each slot in the Gear of all chunks
+        private int[] distanceCursors; // the next index to write a distance of each slot to
+        private int[] speedCursors; // the next index to write an average speed of each slot to
+
+        /**
+         * @param from the index of the first Activity of the chunk.
+         * @param to the index after the last Activity of the chunk.
+         */
+        private Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @param gear the Gear to find. Must not be {@code null}.
+         * @return the local slot of the Gear, added if it is not in the chunk yet.
+         */
+        private int slotOf(Gear gear) {
+            // few Gear are used, and usually the same for many Activities in a row, so a scan is enough
+            int slot = 0;
+            while(slot < gearsAmount && gears[slot] != gear && !gears[slot].equals(gear))
+                slot++;
+
+            if(slot == gearsAmount) {
+                if(gearsAmount == gears.length) {
+                    gears = Arrays.copyOf(gears, gearsAmount * 2);
+                    counts = Arrays.copyOf(counts, gearsAmount * 2);
+                    distanceSums = Arrays.copyOf(distanceSums, gearsAmount * 2);
+                    speedCounts = Arrays.copyOf(speedCounts, gearsAmount * 2);
+                    speedSums = Arrays.copyOf(speedSums, gearsAmount * 2);
+                }
+                gears[gearsAmount++] = gear;
+            }
+
+            return slot;
+        }
+    }
+
+    /**
+     * Runs a piece of work for each chunk of a range, splitting the range in halves until one chunk is left.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from; // the index of the first chunk of the range
+        private final int to; // the index after the last chunk of the range
+        private final IntConsumer work; // the work to run with the index of each chunk
+
+        /**
+         * @param from the index of the first chunk of the range.
+         * @param to the index after the last chunk of the range.
+         * @param work the work to run with the index of each chunk. Must not be {@code null}.
+         */
+        private ChunkTask(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from == 1)
+                work.accept(from);
+            else if(to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(from, middle, work), new ChunkTask(middle, to, work));
+            }
+        }
+    }
+
+    /**
+     * Constructor for ActivityStatistics.
+     * @param map the Map whose Activities are to be summarised. Must not be {@code null}.
+     */
+    public ActivityStatistics(Map map){
+        this.map = map;
+
+        checkActivityStatistics();
+    }
+
+    /**
+     * Summarises the ended Activities that started within a time range.
+     * @param from the start of the range (inclusive). Must not be {@code null}.
+     * @param to the end of the range (exclusive). Must not be {@code null}.
+     * @return the statistics of the Activities, with a summary for each Gear in order of first use.
+     * Must not be {@code null}.
+     * @implNote the Map must not change while the statistics are computed.
+     */
+    public ActivitySummary summarize(LocalDateTime from, LocalDateTime to){
+        checkActivityStatistics();
+
+        List<Activity> activities = map.activitiesBetween(from, to);
+        int activitiesAmount = activities.size();
+        Chunk[] chunks = new Chunk[(activitiesAmount + CHUNK_SIZE - 1) / CHUNK_SIZE];
+        int[] slots = new int[activitiesAmount]; // the local slot of the Gear of each Activity, or -1 if not ended
+
+        // first pass: the totals of each Gear within each chunk
+        forEachChunk(chunks.length, c -> chunks[c] = countChunk(activities, slots, c * CHUNK_SIZE,
+                Math.min(activitiesAmount, (c + 1) * CHUNK_SIZE)));
+
+        // numbering the Gear of all chunks in order of first use
+        List<Gear> gears = new ArrayList<>();
+        for(Chunk chunk : chunks) {
+            chunk.globalGears = new int[chunk.gearsAmount];
+            for(int slot = 0; slot < chunk.gearsAmount; slot++) {
+                int gear = gears.indexOf(chunk.gears[slot]);
+                if(gear < 0) {
+                    gear = gears.size();
+                    gears.add(chunk.gears[slot]);
+                }
+                chunk.globalGears[slot] = gear;
+            }
+        }
+
+        // adding up the totals of each Gear, chunk by chunk
+        int gearsAmount = gears.size();
+        int[] counts = new int[gearsAmount];
+        long[] distanceSums = new long[gearsAmount];
+        int[] speedCounts = new int[gearsAmount];
+        double[] speedSums = new double[gearsAmount];
+        for(Chunk chunk : chunks)
+            for(int slot = 0; slot < chunk.gearsAmount; slot++) {
+                int gear = chunk.globalGears[slot];
+                counts[gear] += chunk.counts[slot];
+                distanceSums[gear] += chunk.distanceSums[slot];
+                speedCounts[gear] += chunk.speedCounts[slot];
+                speedSums[gear] += chunk.speedSums[slot];
+            }
+
+        // the range of each Gear in the value arrays, then the range of each chunk within it
+        int[] distanceStarts = new int[gearsAmount + 1];
+        int[] speedStarts = new int[gearsAmount + 1];
+        for(int gear = 0; gear < gearsAmount; gear++) {
+            distanceStarts[gear + 1] = distanceStarts[gear] + counts[gear];
+            speedStarts[gear + 1] = speedStarts[gear] + speedCounts[gear];
+        }
+        int[] distanceCursors = Arrays.copyOf(distanceStarts, gearsAmount);
+        int[] speedCursors = Arrays.copyOf(speedStarts, gearsAmount);
+        for(Chunk chunk : chunks) {
+            chunk.distanceCursors = new int[chunk.gearsAmount];
+            chunk.speedCursors = new int[chunk.gearsAmount];
+            for(int slot = 0; slot < chunk.gearsAmount; slot++) {
+                int gear = chunk.globalGears[slot];
+                chunk.distanceCursors[slot] = distanceCursors[gear];
+                chunk.speedCursors[slot] = speedCursors[gear];
+                distanceCursors[gear] += chunk.counts[slot];
+                speedCursors[gear] += chunk.speedCounts[slot];
+            }
+        }
+
+        // second pass: the values of each chunk, grouped by Gear
+        long[] distances = new long[distanceStarts[gearsAmount]];
+        long[] speeds = new long[speedStarts[gearsAmount]];
+        forEachChunk(chunks.length, c -> copyChunk(activities, slots, chunks[c], distances, speeds));
+
+        List<ActivitySummary> gearSummaries = new ArrayList<>(gearsAmount);
+        long totalDistance = 0;
+        double totalSpeed = 0;
+        for(int gear = 0; gear < gearsAmount; gear++) {
+            Arrays.parallelSort(distances, distanceStarts[gear], distanceStarts[gear + 1]);
+            Arrays.parallelSort(speeds, speedStarts[gear], speedStarts[gear + 1]);
+            gearSummaries.add(new ActivitySummary(gears.get(gear), distances, distanceStarts[gear],
+                    distanceStarts[gear + 1], distanceSums[gear], speeds, speedStarts[gear], speedStarts[gear + 1],
+                    speedSums[gear], List.of()));
+
+            totalDistance += distanceSums[gear];
+            totalSpeed += speedSums[gear];
+        }
+
+        // the overall values are merged into arrays of their own, so the ranges of each Gear stay as they are
+        long[] allDistances = mergeGroups(distances, distanceStarts);
+        long[] allSpeeds = mergeGroups(speeds, speedStarts);
+
+        ActivitySummary summary = new ActivitySummary(null, allDistances, 0, allDistances.length, totalDistance,
+                allSpeeds, 0, allSpeeds.length, totalSpeed, gearSummaries);
+
+        checkActivityStatistics();
+
+        return summary;
+    }
+
+    /**
+     * Counts and sums the values of each Gear within a chunk, and records the Gear of each Activity.
+     * @param activities the Activities in range. Must not be {@code null}.
+     * @param slots the array to record the local slot of the Gear of each Activity in. Must not be {@code null}.
+     * @param from the index of the first Activity of the chunk.
+     * @param to the index after the last Activity of the chunk.
+     * @return the chunk with its totals. Must not be {@code null}.
+     */
+    private static Chunk countChunk(List<Activity> activities, int[] slots, int from, int to) {
+        Chunk chunk = new Chunk(from, to);
+
+        for(int i = from; i < to; i++) {
+            Activity activity = activities.get(i);
+
+            // an Activity is counted in both passes only if it had ended by the first
+            int slot = -1;
+            if(activity.getEnd() != null) {
+                slot = chunk.slotOf(activity.getGear());
+                chunk.counts[slot]++;
+                chunk.distanceSums[slot] += (long) activity.getStepsAmount() * METERS_PER_STEP;
+
+                double speed = activity.getAvgSpeed();
+                if(Double.isFinite(speed)) {
+                    chunk.speedCounts[slot]++;
+                    chunk.speedSums[slot] += speed;
+                }
+            }
+            slots[i] = slot;
+        }
+
+        return chunk;
+    }
+
+    /**
+     * Copies the values of the Activities of a chunk into the ranges of the chunk in the value arrays.
+     * @param activities the Activities in range. Must not be {@code null}.
+     * @param slots the local slot of the Gear of each Activity, or -1 if it is left out. Must not be {@code null}.
+     * @param chunk the chunk, with its cursors set. Must not be {@code null}.
+     * @param distances the distances of all chunks, grouped by Gear. Must not be {@code null}.
+     * @param speeds the bits of the finite average speeds of all chunks, grouped by Gear. Must not be {@code null}.
+     */
+    private static void copyChunk(List<Activity> activities, int[] slots, Chunk chunk,
+                                  long[] distances, long[] speeds) {
+        for(int i = chunk.from; i < chunk.to; i++) {
+            int slot = slots[i];
+            if(slot >= 0) {
+                Activity activity = activities.get(i);
+                distances[chunk.distanceCursors[slot]++] = (long) activity.getStepsAmount() * METERS_PER_STEP;
+
+                double speed = activity.getAvgSpeed();
+                if(Double.isFinite(speed))
+                    speeds[chunk.speedCursors[slot]++] = Double.doubleToRawLongBits(speed);
+            }
+        }
+    }
+
+    /**
+     * @param values the values, sorted within each group. Must not be {@code null}.
+     * @param starts the index of the first value of each group, followed by the number of values.
+     *               Must not be {@code null}.
+     * @return a new array of all the values, sorted. Must not be {@code null}.
+     * @implNote there are few groups (one per Gear), so the smallest next value is found by a scan of the groups.
+     */
+    private static long[] mergeGroups(long[] values, int[] starts) {
+        int groupsAmount = starts.length - 1;
+        int[] cursors = Arrays.copyOf(starts, groupsAmount); // the next value of each group
+        long[] merged = new long[values.length];
+
+        for(int i = 0; i < merged.length; i++) {
+            int smallest = -1;
+            for(int group = 0; group < groupsAmount; group++)
+                if(cursors[group] < starts[group + 1]
+                        && (smallest < 0 || values[cursors[group]] < values[cursors[smallest]]))
+                    smallest = group;
+            merged[i] = values[cursors[smallest]++];
+        }
+
+        return merged;
+    }
+
+    /**
+     * Runs a piece of work for each chunk in parallel, and waits for all of them.
+     * @param chunksAmount the number of chunks.
+     * @param work the work to run with the index of each chunk. Must not be {@code null}.
+     */
+    private static void forEachChunk(int chunksAmount, IntConsumer work) {
+        ForkJoinPool.commonPool().invoke(new ChunkTask(0, chunksAmount, work));
+    }
+
+    /**
+     * Ensures ActivityStatistics invariants are not violated.
+     */
+    private void checkActivityStatistics(){
+        Preconditions.checkNotNull(map, "map cannot be null.");
+    }
+}
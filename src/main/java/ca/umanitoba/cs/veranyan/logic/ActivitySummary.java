@@ -0,0 +1,184 @@
+package ca.umanitoba.cs.veranyan.logic;
+
+import ca.umanitoba.cs.veranyan.model.Activity;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import com.google.common.base.Preconditions;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statistics of the distances and average speeds of a group of ended {@link Activity Activities}, such as
+ * those computed by {@link ActivityStatistics}: totals, means and percentiles, overall or for one {@link Gear}.
+ * Distances are in meters and average speeds in meters per second. Activities that ended when they started
+ * have no finite average speed, so they count towards the distance statistics only.
+ * @implNote the distances and average speeds are kept sorted, so a percentile takes constant time. Average
+ * speeds are kept as the bits of their IEEE 754 representation, which sort in the same order for positive values.
+ * The summaries of different Gear share arrays grouped by Gear, each over its own range, while the overall
+ * summary keeps merged arrays of its own.
+ */
+public class ActivitySummary {
+    private final Gear gear; // the Gear of the Activities, or null for all of them
+    private final long[] distances; // sorted within [distancesFrom, distancesTo)
+    private final int distancesFrom;
+    private final int distancesTo;
+    private final long totalDistance;
+    private final long[] speeds; // bits of the speeds, sorted within [speedsFrom, speedsTo)
+    private final int speedsFrom;
+    private final int speedsTo;
+    private final double totalSpeed; // the sum of the average speeds
+    private final List<ActivitySummary> gearSummaries; // one per Gear, in order of first use; empty for one Gear
+
+    /**
+     * Constructor for ActivitySummary.
+     * @param gear the Gear of the Activities, or {@code null} if the summary is over all Gear.
+     * @param distances the distances of the Activities, sorted within the range. Must not be {@code null}.
+     * @param distancesFrom the index of the first distance of the Activities.
+     * @param distancesTo the index after the last distance of the Activities.
+     * @param totalDistance the sum of the distances.
+     * @param speeds the bits of the finite average speeds of the Activities (see
+     *               {@link Double#doubleToRawLongBits(double)}), sorted within the range. Must not be {@code null}.
+     * @param speedsFrom the index of the first average speed of the Activities.
+     * @param speedsTo the index after the last average speed of the Activities.
+     * @param totalSpeed the sum of the average speeds.
+     * @param gearSummaries the summaries of each Gear. Must not be {@code null}. Must be empty if gear is set.
+     */
+    ActivitySummary(Gear gear, long[] distances, int distancesFrom, int distancesTo, long totalDistance,
+                    long[] speeds, int speedsFrom, int speedsTo, double totalSpeed,
+                    List<ActivitySummary> gearSummaries) {
+        this.gear = gear;
+        this.distances = distances;
+        this.distancesFrom = distancesFrom;
+        this.distancesTo = distancesTo;
+        this.totalDistance = totalDistance;
+        this.speeds = speeds;
+        this.speedsFrom = speedsFrom;
+        this.speedsTo = speedsTo;
+        this.totalSpeed = totalSpeed;
+        this.gearSummaries = Collections.unmodifiableList(gearSummaries);
+
+        checkActivitySummary();
+    }
+
+    /**
+     * @return the Gear of the summarised Activities, or {@code null} if the summary is over all Gear.
+     */
+    public Gear getGear() {
+        checkActivitySummary();
+
+        return gear;
+    }
+
+    /**
+     * @return the number of summarised Activities. Must be non-negative.
+     */
+    public int getActivitiesAmount() {
+        checkActivitySummary();
+
+        return distancesTo - distancesFrom;
+    }
+
+    /**
+     * @return the total distance of the Activities, in meters. Must be non-negative.
+     */
+    public long getTotalDistance() {
+        checkActivitySummary();
+
+        return totalDistance;
+    }
+
+    /**
+     * @return the mean distance of the Activities, in meters.
+     * @implNote getMeanDistance() can be called only when there is at least one Activity.
+     */
+    public double getMeanDistance() {
+        checkActivitySummary();
+        Preconditions.checkState(distancesTo > distancesFrom, "summary has no activities.");
+
+        return totalDistance / (double) (distancesTo - distancesFrom);
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100 inclusive.
+     * @return the smallest distance, in meters, that at least percentile percent of the Activities
+     * do not exceed (the nearest-rank percentile).
+     * @implNote getDistancePercentile() can be called only when there is at least one Activity.
+     */
+    public long getDistancePercentile(double percentile) {
+        checkActivitySummary();
+        Preconditions.checkState(distancesTo > distancesFrom, "summary has no activities.");
+
+        return distances[distancesFrom + rankIndex(percentile, distancesTo - distancesFrom)];
+    }
+
+    /**
+     * @return the number of Activities with a finite average speed. Must be non-negative.
+     */
+    public int getSpeedsAmount() {
+        checkActivitySummary();
+
+        return speedsTo - speedsFrom;
+    }
+
+    /**
+     * @return the mean of the average speeds of the Activities, in meters per second.
+     * @implNote getMeanAvgSpeed() can be called only when an Activity has a finite average speed.
+     */
+    public double getMeanAvgSpeed() {
+        checkActivitySummary();
+        Preconditions.checkState(speedsTo > speedsFrom, "summary has no average speeds.");
+
+        return totalSpeed / (speedsTo - speedsFrom);
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100 inclusive.
+     * @return the smallest average speed, in meters per second, that at least percentile percent of the
+     * Activities with a finite average speed do not exceed (the nearest-rank percentile).
+     * @implNote getAvgSpeedPercentile() can be called only when an Activity has a finite average speed.
+     */
+    public double getAvgSpeedPercentile(double percentile) {
+        checkActivitySummary();
+        Preconditions.checkState(speedsTo > speedsFrom, "summary has no average speeds.");
+
+        return Double.longBitsToDouble(speeds[speedsFrom + rankIndex(percentile, speedsTo - speedsFrom)]);
+    }
+
+    /**
+     * @return the unmodifiable list of summaries of each Gear used, in order of first use. Must not be {@code null}.
+     * Empty if the summary is over one Gear.
+     */
+    public List<ActivitySummary> getGearSummaries() {
+        checkActivitySummary();
+
+        return gearSummaries;
+    }
+
+    /**
+     * @param percentile the percentile, from 0 to 100 inclusive.
+     * @param amount the number of values. Must be positive.
+     * @return the index, from the first value, of the nearest-rank percentile of the sorted values.
+     */
+    private static int rankIndex(double percentile, int amount) {
+        Preconditions.checkState(percentile >= 0 && percentile <= 100, "percentile must be from 0 to 100.");
+
+        return Math.max(0, (int) Math.ceil(percentile / 100 * amount) - 1);
+    }
+
+    /**
+     * Ensures ActivitySummary invariants are not violated.
+     */
+    private void checkActivitySummary() {
+        Preconditions.checkNotNull(distances, "distances cannot be null.");
+        Preconditions.checkNotNull(speeds, "speeds cannot be null.");
+        Preconditions.checkNotNull(gearSummaries, "gearSummaries cannot be null.");
+        Preconditions.checkState(distancesFrom >= 0 && distancesFrom <= distancesTo && distancesTo <= distances.length,
+                "distances range is out of bounds.");
+        Preconditions.checkState(speedsFrom >= 0 && speedsFrom <= speedsTo && speedsTo <= speeds.length,
+                "speeds range is out of bounds.");
+        Preconditions.checkState(speedsTo - speedsFrom <= distancesTo - distancesFrom,
+                "there cannot be more speeds than activities.");
+        Preconditions.checkState(totalDistance >= 0, "totalDistance cannot be negative.");
+        Preconditions.checkState(gear == null || gearSummaries.isEmpty(), "a gear summary cannot have gear summaries.");
+    }
+}
@@ -1,70 +1,115 @@
 package ca.umanitoba.cs.veranyan.logic;
 
 import ca.umanitoba.cs.veranyan.model.Profile;
-import ca.umanitoba.cs.veranyan.model.gear.Gear;
 import com.google.common.base.Preconditions;
 
 import java.util.*;
-
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The ProfileRegistry holds every {@link Profile}, indexed by name ignoring case. It can be shared by
+ * many users: each user keeps the Profile they are logged in as in a {@link ProfileSession} of their own.
+ * @implNote the Profiles are kept in a {@link ConcurrentSkipListMap}, so lookups take O(log n) time without
+ * locking and concurrent additions and replacements do not block each other. The Profiles themselves are
+ * not thread-safe. A registered Profile must be renamed through {@link ProfileSession#replaceCurrentProfile(Profile)}
+ * rather than {@link Profile#setName(String)}, so that the index follows its name.
+ */
 public class ProfileRegistry {
-    private final SortedSet<Profile> profiles;
-    private Profile currentProfile;
+    private final ConcurrentSkipListMap<String, Profile> profiles;
+    private final ProfileSession defaultSession; // the session of the local user, kept in snapshots
 
     public ProfileRegistry(){
-        profiles = new TreeSet<>(Comparator.comparing(Profile::getName, String::compareToIgnoreCase));
+        profiles = new ConcurrentSkipListMap<>(String.CASE_INSENSITIVE_ORDER);
+        defaultSession = new ProfileSession(this);
     }
 
-    public SortedSet<Profile> getProfiles() {
-        return profiles;
+    /**
+     * @return the unmodifiable view of the Profiles, in name order ignoring case. Must not be {@code null}.
+     * Iterating it while Profiles are added sees some, all or none of the additions, and never fails.
+     */
+    public Collection<Profile> getProfiles() {
+        return Collections.unmodifiableCollection(profiles.values());
     }
 
-    public Profile getCurrentProfile() {
-        // when requested to get the current profile, the profile has to be loaded
-        Preconditions.checkNotNull(currentProfile, "currentProfile cannot be null");
+    /**
+     * @param name the name of the Profile. Must not be {@code null}.
+     * @return the Profile with the name, ignoring case, or {@code null} if there is none.
+     */
+    public Profile findProfile(String name){
+        Preconditions.checkNotNull(name, "name cannot be null");
 
-        return currentProfile;
+        return profiles.get(name);
     }
 
-    public boolean addProfile(Profile profile){
-        return profiles.add(profile);
+    /**
+     * @return a new session, with no Profile loaded, for a user of the registry. Must not be {@code null}.
+     */
+    public ProfileSession openSession(){
+        return new ProfileSession(this);
     }
 
-    public boolean replaceCurrentProfile(Profile replacement){
-        Preconditions.checkNotNull(currentProfile, "cannot replace a null currentProfile");
-        Preconditions.checkNotNull(replacement, "replacement cannot be null");
-
-        String currName = currentProfile.getName();
-        boolean isDuplicate = false;
-
-        Iterator<Profile> iterator = profiles.iterator();
-        while(iterator.hasNext() && !isDuplicate) {
-            var next = iterator.next();
-            isDuplicate = (next != currentProfile) && (next.getName().equalsIgnoreCase(replacement.getName()));
-        }
+    /**
+     * @return the session of the local user, whose current Profile is the one kept in snapshots.
+     * Must not be {@code null}.
+     */
+    public ProfileSession getDefaultSession(){
+        return defaultSession;
+    }
 
-        if(!isDuplicate)
-            currentProfile = replacement;
+    public Profile getCurrentProfile() {
+        return defaultSession.getCurrentProfile();
+    }
 
-        return isDuplicate;
+    public boolean hasCurrentProfile() {
+        return defaultSession.hasCurrentProfile();
     }
 
-    public void loadProfile(Profile profile){
+    public boolean addProfile(Profile profile){
         Preconditions.checkNotNull(profile, "profile cannot be null");
 
-        boolean isAdded = false;
-        Iterator<Profile> iterator = profiles.iterator();
-        while(iterator.hasNext() && !isAdded)
-            isAdded = (iterator.next() == profile);
-
-        Preconditions.checkState(isAdded, "Profile has to be added to be loaded.");
+        return profiles.putIfAbsent(profile.getName(), profile) == null;
+    }
 
-        currentProfile = profile;
+    public boolean replaceCurrentProfile(Profile replacement){
+        return defaultSession.replaceCurrentProfile(replacement);
+    }
 
-        // FIXME is it reasonable to check this
-        Preconditions.checkNotNull(currentProfile, "currentProfile cannot be null after loading");
+    public void loadProfile(Profile profile){
+        defaultSession.loadProfile(profile);
     }
 
     public boolean isEmpty(){
         return profiles.isEmpty();
     }
+
+    /**
+     * @param profile the Profile to look for. Must not be {@code null}.
+     * @return true if this exact Profile is in the registry; false otherwise.
+     */
+    boolean isRegistered(Profile profile){
+        return profiles.get(profile.getName()) == profile;
+    }
+
+    /**
+     * Replaces a registered Profile with another, unless the name of the replacement belongs to a third Profile.
+     * @param current the registered Profile to replace. Must not be {@code null}.
+     * @param replacement the Profile to register instead. Must not be {@code null}.
+     * @return true if the name of the replacement is a duplicate, so nothing was replaced; false otherwise.
+     */
+    boolean replaceProfile(Profile current, Profile replacement){
+        Preconditions.checkNotNull(current, "current cannot be null");
+        Preconditions.checkNotNull(replacement, "replacement cannot be null");
+
+        boolean isDuplicate;
+        if(String.CASE_INSENSITIVE_ORDER.compare(current.getName(), replacement.getName()) == 0)
+            isDuplicate = !profiles.replace(current.getName(), current, replacement);
+        else {
+            // the new name is claimed first, so no other user can take it while current is removed
+            isDuplicate = profiles.putIfAbsent(replacement.getName(), replacement) != null;
+            if(!isDuplicate)
+                profiles.remove(current.getName(), current);
+        }
+
+        return isDuplicate;
+    }
 }
@@ -0,0 +1,60 @@
+package ca.umanitoba.cs.veranyan.logic;
+
+import ca.umanitoba.cs.veranyan.model.Profile;
+import com.google.common.base.Preconditions;
+
+/**
+ * A ProfileSession is the handle of one user of a {@link ProfileRegistry}: it holds the Profile the user
+ * is logged in as. Sessions of the same registry are independent of each other.
+ * @implNote a session is meant to be used by one thread at a time; the registry it refers to may be
+ * shared by any number of threads.
+ */
+public class ProfileSession {
+    private final ProfileRegistry registry;
+    private Profile currentProfile;
+
+    /**
+     * Constructor for ProfileSession, with no Profile loaded.
+     * @param registry the registry the session belongs to. Must not be {@code null}.
+     */
+    ProfileSession(ProfileRegistry registry){
+        this.registry = registry;
+
+        Preconditions.checkNotNull(registry, "registry cannot be null");
+    }
+
+    public Profile getCurrentProfile() {
+        // when requested to get the current profile, the profile has to be loaded
+        Preconditions.checkNotNull(currentProfile, "currentProfile cannot be null");
+
+        return currentProfile;
+    }
+
+    public boolean hasCurrentProfile() {
+        return currentProfile != null;
+    }
+
+    /**
+     * Replaces the current Profile, in the session and in the registry.
+     * @param replacement the Profile to replace the current one with. Must not be {@code null}.
+     * @return true if another Profile already has the name of the replacement, so nothing was replaced;
+     * false otherwise.
+     */
+    public boolean replaceCurrentProfile(Profile replacement){
+        Preconditions.checkNotNull(currentProfile, "cannot replace a null currentProfile");
+        Preconditions.checkNotNull(replacement, "replacement cannot be null");
+
+        boolean isDuplicate = registry.replaceProfile(currentProfile, replacement);
+        if(!isDuplicate)
+            currentProfile = replacement;
+
+        return isDuplicate;
+    }
+
+    public void loadProfile(Profile profile){
+        Preconditions.checkNotNull(profile, "profile cannot be null");
+        Preconditions.checkState(registry.isRegistered(profile), "Profile has to be added to be loaded.");
+
+        currentProfile = profile;
+    }
+}
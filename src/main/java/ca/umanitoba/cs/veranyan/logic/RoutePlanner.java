@@ -0,0 +1,245 @@
+package ca.umanitoba.cs.veranyan.logic;
+
+import ca.umanitoba.cs.veranyan.model.map.Coordinate;
+import ca.umanitoba.cs.veranyan.model.map.Map;
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Plans shortest {@link Route} instances between two points of a {@link Map}, moving around its Obstacles.
+ * Routes move in the four directions of {@link Route#move(int, int)}, so a shortest Route has the
+ * fewest steps. Routes of other Activities do not block the way.
+ * @implNote uses A* search with the Manhattan distance as heuristic. The search state is kept in
+ * primitive arrays indexed by cell (y * width + x) that are allocated once per planner and reused, so
+ * a planner should be kept for repeated searches on the same Map.
+ */
+public class RoutePlanner {
+    // change in x- and y-coordinate per step for the Route directions [UP, RIGHT, DOWN, LEFT]
+    private static final int[] DIRECTION_DX = {0, 1, 0, -1};
+    private static final int[] DIRECTION_DY = {-1, 0, 1, 0};
+
+    private final Map map;
+    private final int width;
+    private final int length;
+
+    // search state, valid for a cell only when visited[cell] == search
+    private final int[] visited; // the search in which each cell was last reached
+    private final int[] costs; // the number of steps of the shortest known path from the start to each cell
+    private final byte[] directions; // the direction (0 to 3) of the last step of that path
+    private final long[] closed; // bitset of the cells whose shortest path is final
+    private int search; // the number of searches made
+
+    // open set: binary min-heap of cells ordered by priority (estimated total cost, ties to larger cost)
+    private long[] heapPriorities;
+    private int[] heapCells;
+    private int heapSize;
+
+    /**
+     * Constructor for RoutePlanner.
+     * @param map the Map to plan Routes on. Must not be {@code null}.
+     */
+    public RoutePlanner(Map map){
+        Preconditions.checkNotNull(map, "map cannot be null.");
+
+        this.map = map;
+        this.width = map.getWidth();
+        this.length = map.getLength();
+
+        int cells = Math.multiplyExact(width, length);
+        this.visited = new int[cells];
+        this.costs = new int[cells];
+        this.directions = new byte[cells];
+        this.closed = new long[(cells + 63) / 64];
+        this.heapPriorities = new long[64];
+        this.heapCells = new int[64];
+
+        checkRoutePlanner();
+    }
+
+    /**
+     * Plans a shortest Route between two points that does not go through any Obstacle.
+     * @param from the starting point of the Route. Must be within Map boundaries and not in an Obstacle.
+     * @param to the last point of the Route. Must be within Map boundaries and not in an Obstacle.
+     * @return a new Route from {@code from} to {@code to} with the fewest steps, with consecutive moves in
+     * the same direction merged into one; or {@code null} if Obstacles separate the two points.
+     */
+    public Route planRoute(Coordinate from, Coordinate to){
+        checkRoutePlanner();
+        Preconditions.checkNotNull(from, "from cannot be null.");
+        Preconditions.checkNotNull(to, "to cannot be null.");
+        Preconditions.checkState(from.x() < width && from.y() < length, "from cannot be out of bounds.");
+        Preconditions.checkState(to.x() < width && to.y() < length, "to cannot be out of bounds.");
+        Preconditions.checkState(!map.isInObstacle(from.x(), from.y()), "from cannot be in an obstacle.");
+        Preconditions.checkState(!map.isInObstacle(to.x(), to.y()), "to cannot be in an obstacle.");
+
+        Route route = null;
+        if(search(from.y() * width + from.x(), to.x(), to.y()))
+            route = buildRoute(from, to);
+
+        checkRoutePlanner();
+
+        return route;
+    }
+
+    /**
+     * Runs A* from a start cell until the goal is reached or the open set is empty.
+     * @param start the cell to start from.
+     * @param goalX the x-coordinate of the goal.
+     * @param goalY the y-coordinate of the goal.
+     * @return true if the goal was reached; false otherwise.
+     */
+    private boolean search(int start, int goalX, int goalY){
+        int goal = goalY * width + goalX;
+
+        search++;
+        Arrays.fill(closed, 0);
+        heapSize = 0;
+
+        visited[start] = search;
+        costs[start] = 0;
+        push(start, 0, distance(start % width, start / width, goalX, goalY));
+
+        boolean isReached = false;
+        while(heapSize > 0 && !isReached){
+            int cell = pop();
+
+            // a cell can be in the heap several times; only its cheapest entry is expanded
+            if((closed[cell >>> 6] & (1L << cell)) == 0){
+                closed[cell >>> 6] |= 1L << cell;
+                isReached = cell == goal;
+
+                int x = cell % width;
+                int y = cell / width;
+                int cost = costs[cell] + 1; // the cost of reaching the neighbours through cell
+
+                for(int direction = 0; direction < 4 && !isReached; direction++){
+                    int nextX = x + DIRECTION_DX[direction];
+                    int nextY = y + DIRECTION_DY[direction];
+                    int next = nextY * width + nextX;
+
+                    if(nextX >= 0 && nextX < width && nextY >= 0 && nextY < length &&
+                            (visited[next] != search || cost < costs[next]) &&
+                            (closed[next >>> 6] & (1L << next)) == 0 && !map.isInObstacle(nextX, nextY)){
+                        visited[next] = search;
+                        costs[next] = cost;
+                        directions[next] = (byte) direction;
+                        push(next, cost, cost + distance(nextX, nextY, goalX, goalY));
+                    }
+                }
+            }
+        }
+
+        return isReached;
+    }
+
+    /**
+     * Builds the Route found by the last search by following the recorded directions back from the goal.
+     * @param from the starting point of the search.
+     * @param to the goal of the search. Must have been reached.
+     * @return the Route from {@code from} to {@code to}, one move per straight run.
+     */
+    private Route buildRoute(Coordinate from, Coordinate to){
+        int steps = costs[to.y() * width + to.x()];
+        byte[] path = new byte[steps]; // the direction of each step, in order
+
+        int x = to.x();
+        int y = to.y();
+        for(int i = steps - 1; i >= 0; i--){
+            byte direction = directions[y * width + x];
+            path[i] = direction;
+            x -= DIRECTION_DX[direction];
+            y -= DIRECTION_DY[direction];
+        }
+
+        Route route = new Route(from.x(), from.y());
+
+        // steps in the same direction are sent as one move, so the Route keeps one segment per run
+        int runStart = 0;
+        for(int i = 1; i <= steps; i++)
+            if(i == steps || path[i] != path[runStart]){
+                route.move(path[runStart] + 1, i - runStart);
+                runStart = i;
+            }
+
+        return route;
+    }
+
+    /**
+     * @return the Manhattan distance between (x, y) and (goalX, goalY), the fewest steps between them.
+     */
+    private static int distance(int x, int y, int goalX, int goalY){
+        return Math.abs(goalX - x) + Math.abs(goalY - y);
+    }
+
+    /**
+     * Adds a cell to the open set.
+     * @param cell the cell to add.
+     * @param cost the number of steps from the start to the cell.
+     * @param estimate the estimated number of steps of a path from the start to the goal through the cell.
+     */
+    private void push(int cell, int cost, int estimate){
+        if(heapSize == heapCells.length){
+            heapPriorities = Arrays.copyOf(heapPriorities, heapSize * 2);
+            heapCells = Arrays.copyOf(heapCells, heapSize * 2);
+        }
+
+        // among equal estimates, cells further from the start (closer to the goal) come first
+        long priority = ((long) estimate << 32) | (Integer.MAX_VALUE - cost);
+
+        int child = heapSize++;
+        while(child > 0 && heapPriorities[(child - 1) >>> 1] > priority){
+            int parent = (child - 1) >>> 1;
+            heapPriorities[child] = heapPriorities[parent];
+            heapCells[child] = heapCells[parent];
+            child = parent;
+        }
+
+        heapPriorities[child] = priority;
+        heapCells[child] = cell;
+    }
+
+    /**
+     * Removes the cell with the smallest priority from the open set.
+     * @return the removed cell. The open set must not be empty.
+     */
+    private int pop(){
+        int cell = heapCells[0];
+
+        heapSize--;
+        long priority = heapPriorities[heapSize];
+        int last = heapCells[heapSize];
+
+        // sifting the last entry down from the root
+        int parent = 0;
+        boolean isPlaced = false;
+        while(2 * parent + 1 < heapSize && !isPlaced){
+            int child = 2 * parent + 1;
+            if(child + 1 < heapSize && heapPriorities[child + 1] < heapPriorities[child])
+                child++;
+
+            isPlaced = heapPriorities[child] >= priority;
+            if(!isPlaced){
+                heapPriorities[parent] = heapPriorities[child];
+                heapCells[parent] = heapCells[child];
+                parent = child;
+            }
+        }
+
+        heapPriorities[parent] = priority;
+        heapCells[parent] = last;
+
+        return cell;
+    }
+
+    /**
+     * Ensures RoutePlanner invariants are not violated.
+     */
+    private void checkRoutePlanner(){
+        Preconditions.checkNotNull(map, "map cannot be null.");
+        Preconditions.checkState(map.getWidth() == width && map.getLength() == length,
+                "map dimensions cannot change.");
+        Preconditions.checkState(heapSize >= 0, "heapSize cannot be negative.");
+    }
+}
@@ -1,24 +1,35 @@
 package ca.umanitoba.cs.veranyan.model;
 
 import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.map.Bounds;
 import ca.umanitoba.cs.veranyan.model.map.Route;
 import com.google.common.base.Preconditions;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.function.Supplier;
 
 /**
  * An Activity is a class that contains all the information about
  * a particular cycling exercise. It contains the {@link Gear} used
  * for that particular exercise. Activities are stored in the {@link Profile} instance.
+ * <p>
+ * An Activity loaded from storage may keep only a header of its {@link Route} (the number of steps and
+ * the bounds) and read the coordinates on the first call to {@link #getRoute()}.
+ * <p>
+ * While an Activity is recorded, one thread may move its Route and end it while other threads read it:
+ * the end time is published after the average speed, so a reader that sees the end also sees the speed.
  */
 public class Activity {
     private static final int METERS_PER_STEP = 10; // a step is one coordinate on the Map grid.
 
     private final Gear gear; // the gear to be used in Activity
     private final LocalDateTime start; // the start time of Activity
-    private LocalDateTime end; // Activity end is initialised with null until ended explicitly using endActivity()
-    private final Route route;
+    private volatile LocalDateTime end; // Activity end is initialised with null until ended explicitly using endActivity()
+    private volatile Route route; // null until loaded by routeLoader
+    private volatile Supplier<Route> routeLoader; // reads the Route from storage; null once the Route is loaded
+    private final int headerStepsAmount; // number of steps of the Route, known before it is loaded
+    private final Bounds headerBounds; // bounds of the Route, known before it is loaded
     private double avgSpeed; // value determined at Activity end
 
     /**
@@ -30,17 +41,72 @@ public class Activity {
         this.gear = gear;
         this.start = LocalDateTime.now(); // end not initialised
         this.route = route;
+        this.headerStepsAmount = 0;
+        this.headerBounds = null;
         this.avgSpeed = 0;
 
         checkActivity();
     }
 
+    /**
+     * Constructor for an Activity recorded earlier, such as one loaded from storage.
+     * @param gear the Gear to add to the Activity. Must not be {@code null}.
+     * @param route the Route to add to the Activity. Must not be {@code null}.
+     * @param start the start time of the Activity. Must not be {@code null}.
+     * @param end the end time of the Activity. Must not be before start. May be {@code null} if it did not end.
+     */
+    public Activity(Gear gear, Route route, LocalDateTime start, LocalDateTime end) {
+        this.gear = gear;
+        this.start = start;
+        this.route = route;
+        this.headerStepsAmount = 0;
+        this.headerBounds = null;
+        this.end = end;
+
+        Preconditions.checkNotNull(route, "route cannot be null.");
+        Preconditions.checkNotNull(start, "start cannot be null.");
+        Preconditions.checkState(end == null || !end.isBefore(start), "end cannot be before start.");
+        this.avgSpeed = (end == null) ? 0 : calculateAvgSpeed(end);
+        if(end != null)
+            route.end();
+
+        checkActivity();
+    }
+
+    /**
+     * Constructor for an Activity whose Route is loaded from storage on first use.
+     * @param gear the Gear to add to the Activity. Must not be {@code null}.
+     * @param stepsAmount the number of steps of the Route. Must be positive.
+     * @param bounds the bounds of the Route. Must not be {@code null}.
+     * @param routeLoader reads the Route; called once to load it, and by each {@link #readRoute()} before that.
+     *                    Must be safe to call from any thread. Must not be {@code null}.
+     * @param start the start time of the Activity. Must not be {@code null}.
+     * @param end the end time of the Activity. Must not be before start. May be {@code null} if it did not end.
+     */
+    public Activity(Gear gear, int stepsAmount, Bounds bounds, Supplier<Route> routeLoader,
+                    LocalDateTime start, LocalDateTime end) {
+        this.gear = gear;
+        this.start = start;
+        this.routeLoader = routeLoader;
+        this.headerStepsAmount = stepsAmount;
+        this.headerBounds = bounds;
+        this.end = end;
+
+        Preconditions.checkState(stepsAmount >= 1, "stepsAmount must be positive.");
+        Preconditions.checkNotNull(bounds, "bounds cannot be null.");
+        Preconditions.checkNotNull(start, "start cannot be null.");
+        Preconditions.checkState(end == null || !end.isBefore(start), "end cannot be before start.");
+        this.avgSpeed = (end == null) ? 0 : calculateAvgSpeed(end);
+
+        checkActivity();
+    }
+
     /**
      * @implNote getAvgSpeed() can be called only when Activity has been ended using endActivity().
      * @return the average speed (meters per second) throughout the Activity.
      */
     public double getAvgSpeed() {
-        // average speed is determined only after the activity is finished.
+        // average speed is determined only after the activity is finished. avgSpeed is set before end
         Preconditions.checkNotNull(end, "end cannot be null");
         checkActivity();
 
@@ -76,35 +142,145 @@ public class Activity {
 
     /**
      * @return the Route used in the Activity. Must not be {@code null}.
+     * @implNote loads the Route from storage on the first call if it is not loaded yet.
      */
     public Route getRoute(){
         checkActivity();
 
-        return route;
+        Route loaded = route;
+        if(loaded == null)
+            loaded = loadRoute();
+
+        checkActivity();
+
+        return loaded;
+    }
+
+    /**
+     * @return the Route used in the Activity. Must not be {@code null}.
+     * @implNote if the Route is not loaded yet, it is read from storage without being kept, so that going
+     * once over the Routes of many Activities (such as to export them) does not keep them all in memory.
+     */
+    public Route readRoute(){
+        checkActivity();
+
+        Route loaded = route;
+        if(loaded == null) {
+            // routeLoader is cleared only after route is set, so one of the two is found
+            Supplier<Route> loader = routeLoader;
+            loaded = (loader != null) ? checkLoadedRoute(loader.get()) : route;
+            if(end != null)
+                loaded.end();
+        }
+
+        checkActivity();
+
+        return loaded;
+    }
+
+    /**
+     * @return true if the Route is in memory, so getRoute() does not read storage; false otherwise.
+     */
+    public boolean isRouteLoaded(){
+        checkActivity();
+
+        return route != null;
+    }
+
+    /**
+     * @return the number of steps of the Route. Does not load the Route.
+     */
+    public int getStepsAmount(){
+        checkActivity();
+
+        Route loaded = route;
+        return (loaded == null) ? headerStepsAmount : loaded.getStepsAmount();
+    }
+
+    /**
+     * @return the bounds of the Route. Must not be {@code null}. Does not load the Route.
+     */
+    public Bounds getBounds(){
+        checkActivity();
+
+        Route loaded = route;
+        return (loaded == null) ? headerBounds : loaded.getBounds();
     }
 
     /**
      * Ends the Activity. Activity route cannot be modified after end.
      */
     public void endActivity(){
+        endActivity(LocalDateTime.now());
+    }
+
+    /**
+     * Ends the Activity at a particular time, such as when replaying a recorded Activity.
+     * Activity route cannot be modified after end.
+     * @param end the end time of the Activity. Must not be {@code null}. Must not be before the start.
+     */
+    public void endActivity(LocalDateTime end){
         checkActivity();
+        Preconditions.checkNotNull(end, "end cannot be null.");
+        Preconditions.checkState(!end.isBefore(start), "end cannot be before start.");
+
+        if(this.end == null) {
+            avgSpeed = calculateAvgSpeed(end);
+            this.end = end; // published last, so readers that see the end see avgSpeed
 
-        if(end == null) {
-            end = LocalDateTime.now();
-            avgSpeed = (route.getStepsAmount() * METERS_PER_STEP) /
-                    ((double) Duration.between(start, end).getSeconds());
+            // a Route loaded from now on is ended by loadRoute(), which sets route before reading end
+            Route loaded = route;
+            if(loaded != null)
+                loaded.end();
         }
 
         checkActivity();
     }
 
+    /**
+     * Loads the Route from storage, unless another thread loaded it first.
+     * @return the loaded Route. Must not be {@code null}.
+     */
+    private synchronized Route loadRoute(){
+        if(route == null) {
+            route = checkLoadedRoute(routeLoader.get());
+            routeLoader = null; // set after route, so that route or routeLoader is always set
+            if(end != null)
+                route.end();
+        }
+
+        return route;
+    }
+
+    /**
+     * @param loaded the Route read by routeLoader. May be {@code null}.
+     * @return the Route, once checked against the header it was stored with. Must not be {@code null}.
+     */
+    private Route checkLoadedRoute(Route loaded){
+        Preconditions.checkNotNull(loaded, "loaded route cannot be null.");
+        Preconditions.checkState(loaded.getStepsAmount() == headerStepsAmount
+                && loaded.getBounds().equals(headerBounds), "route does not match its header.");
+
+        return loaded;
+    }
+
+    /**
+     * @param end the end time of the Activity. Must not be {@code null}.
+     * @return the average speed (meters per second) over the Route between start and end.
+     */
+    private double calculateAvgSpeed(LocalDateTime end){
+        return (getStepsAmount() * METERS_PER_STEP) /
+                ((double) Duration.between(start, end).getSeconds());
+    }
+
     /**
      * Ensures Activity invariants are not violated.
      */
     private void checkActivity(){
         Preconditions.checkNotNull(gear, "gear cannot be null.");
         Preconditions.checkNotNull(start, "start cannot be null.");
-        Preconditions.checkNotNull(route, "route cannot be null.");
+        // routeLoader is read first: it is cleared only after route is set
+        Preconditions.checkState(routeLoader != null || route != null, "route cannot be null.");
         Preconditions.checkState(avgSpeed >= 0, "avgSpeed cannot be negative.");
 
         // Coordinate will ensure coordinates are non-negative
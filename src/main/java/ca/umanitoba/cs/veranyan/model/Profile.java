@@ -7,7 +7,6 @@ import com.google.common.base.Preconditions;
 
 import java.util.SortedSet;
 import java.util.TreeSet;
-import java.util.Iterator;
 import java.util.Collections;
 import java.util.Comparator;
 
@@ -18,9 +17,13 @@ import java.util.Comparator;
  * a particular Activity, and the {@link Activity} instances.
  */
 public class Profile {
-    private Map map; // map singleton
+    // when set, every public call re-validates all the gears instead of only the ones added
+    private static final boolean FULL_CHECK = Boolean.getBoolean("ca.umanitoba.cs.veranyan.fullChecks");
+
+    private Map map; // the map of the profile. May be null
     private String name;
     private final SortedSet<Gear> gears;
+    private Gear[] gearIndex; // gears in name order for positional access and lookup. null when out of date
 
     /**
      * Constructor for Profile.
@@ -40,6 +43,7 @@ public class Profile {
         });
 
         // adding initial gear
+        Preconditions.checkNotNull(gear, "gears entry cannot be null.");
         this.gears.add(gear);
 
         checkProfile();
@@ -67,7 +71,7 @@ public class Profile {
     }
 
     /**
-     * @return the Map singleton added to the system. Or null if no map added. May be {@code null}.
+     * @return the Map of the Profile. Or null if no map added. May be {@code null}.
      */
     public Map getMap() {
         checkProfile();
@@ -77,7 +81,7 @@ public class Profile {
 
     /**
      * Adds a new Map to the system.
-     * @param map the Map singleton to add (must not be {@code null})
+     * @param map the Map to add (must not be {@code null})
      */
     public void addMap(Map map){
         checkProfile();
@@ -116,15 +120,39 @@ public class Profile {
     public Gear getGear(int index){
         checkProfile();
 
-        Iterator<Gear> gearIterator = gears.iterator();
+        Gear[] sortedGears = getGearIndex();
+        Preconditions.checkElementIndex(index, sortedGears.length);
 
-        // omitting all elements until reaching the element at index
-        for(int i = 0; i < index; i++)
-            gearIterator.next();
+        return sortedGears[index];
+    }
 
+    /**
+     * Finds a Gear by name. Names are compared ignoring case, as they are when ordering the Gears.
+     * @param gearName the name of the Gear to find. Must not be {@code null}.
+     * @return the Gear with the given name, or {@code null} if the Profile has no such Gear.
+     */
+    public Gear findGear(String gearName){
         checkProfile();
+        Preconditions.checkNotNull(gearName, "gearName cannot be null.");
+
+        Gear[] index = getGearIndex();
+        Gear found = null;
+
+        // binary search over the name-ordered gears
+        int low = 0;
+        int high = index.length - 1;
+        while(low <= high && found == null){
+            int mid = (low + high) >>> 1;
+            int comparison = index[mid].name().compareToIgnoreCase(gearName);
 
-        return gearIterator.next();
+            if(comparison < 0)
+                low = mid + 1;
+            else if(comparison > 0)
+                high = mid - 1;
+            else found = index[mid];
+        }
+
+        return found;
     }
 
     /**
@@ -134,7 +162,11 @@ public class Profile {
     public boolean addGear(Gear gear){
         checkProfile();
 
+        // only the new Gear is validated; the existing gears were validated when they were added
+        Preconditions.checkNotNull(gear, "gears entry cannot be null.");
         boolean isAdded = gears.add(gear);
+        if(isAdded)
+            gearIndex = null;
 
         checkProfile();
         return isAdded;
@@ -148,19 +180,26 @@ public class Profile {
     public void removeGear(int index){
         checkProfile();
 
-        Iterator<Gear> iterator = gears.iterator();
+        gears.remove(getGear(index));
+        gearIndex = null;
 
-        // omitting all elements until reaching the element at index
-        for(int j = 0; j < index; j++)
-            iterator.next();
+        checkProfile();
+    }
 
-        gears.remove(iterator.next());
+    /**
+     * @return the gears in name order. The array is rebuilt on the first call after the gears change.
+     */
+    private Gear[] getGearIndex(){
+        if(gearIndex == null)
+            gearIndex = gears.toArray(new Gear[0]);
 
-        checkProfile();
+        return gearIndex;
     }
 
     /**
      * Ensures Profile invariants are not violated.
+     * @implNote gears are checked when they are added, so walking all of them is only done when the
+     * {@code ca.umanitoba.cs.veranyan.fullChecks} system property is set.
      */
     private void checkProfile(){
         Preconditions.checkNotNull(name, "name cannot be null.");
@@ -169,8 +208,9 @@ public class Profile {
         Preconditions.checkState(!gears.isEmpty(), "gears should have at least one entry.");
 
         // Gear cannot be null
-        for (var gear : gears)
-            Preconditions.checkNotNull(gear, "gears entry cannot be null.");
+        if(FULL_CHECK)
+            for (var gear : gears)
+                Preconditions.checkNotNull(gear, "gears entry cannot be null.");
     }
 
 }
@@ -0,0 +1,48 @@
+package ca.umanitoba.cs.veranyan.model.map;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A Bounds instance is the smallest rectangle of the {@link Map} grid enclosing a set of points,
+ * such as the steps of a {@link Route}. Both corners are inclusive.
+ * @param minX the non-negative smallest x-coordinate of the rectangle.
+ * @param minY the non-negative smallest y-coordinate of the rectangle.
+ * @param maxX the largest x-coordinate of the rectangle. Must be greater than or equal to minX.
+ * @param maxY the largest y-coordinate of the rectangle. Must be greater than or equal to minY.
+ */
+public record Bounds(int minX, int minY, int maxX, int maxY) {
+    /**
+     * Compact constructor for Bounds.
+     * @param minX the non-negative smallest x-coordinate of the rectangle.
+     * @param minY the non-negative smallest y-coordinate of the rectangle.
+     * @param maxX the largest x-coordinate of the rectangle. Must be greater than or equal to minX.
+     * @param maxY the largest y-coordinate of the rectangle. Must be greater than or equal to minY.
+     */
+    public Bounds {
+        // validating record arguments as preconditions before field initialisation.
+        Preconditions.checkState(minX >= 0, "minX cannot be negative.");
+        Preconditions.checkState(minY >= 0, "minY cannot be negative.");
+        Preconditions.checkState(maxX >= minX, "maxX cannot be less than minX.");
+        Preconditions.checkState(maxY >= minY, "maxY cannot be less than minY.");
+    }
+
+    /**
+     * @param x the x-coordinate of the point.
+     * @param y the y-coordinate of the point.
+     * @return true if (x, y) is within the rectangle; false otherwise.
+     */
+    public boolean contains(int x, int y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    /**
+     * @param fromX the smallest x-coordinate of the other rectangle.
+     * @param fromY the smallest y-coordinate of the other rectangle.
+     * @param toX the largest x-coordinate of the other rectangle.
+     * @param toY the largest y-coordinate of the other rectangle.
+     * @return true if the rectangles share at least one point; false otherwise.
+     */
+    public boolean overlaps(int fromX, int fromY, int toX, int toY) {
+        return minX <= toX && maxX >= fromX && minY <= toY && maxY >= fromY;
+    }
+}
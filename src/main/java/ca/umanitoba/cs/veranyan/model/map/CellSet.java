@@ -0,0 +1,132 @@
+package ca.umanitoba.cs.veranyan.model.map;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * A set of (x, y) cells of the {@link Map} grid. Cells are packed into {@code long} keys
+ * and stored in an open-addressing hash table with linear probing, so that no object
+ * is created per cell.
+ * <p>
+ * One thread may add cells while others look cells up: slots are only ever filled, never emptied, and a
+ * resized table is published only once it holds every cell. A lookup finds every cell added before some
+ * volatile write it has read, and possibly cells added later.
+ */
+class CellSet {
+    private static final long EMPTY = -1L; // cells are non-negative, so a packed cell is never -1
+    private static final int INITIAL_CAPACITY = 64; // must be a power of two
+
+    private volatile long[] table;
+    private int size;
+
+    /**
+     * Constructor for an empty CellSet.
+     */
+    CellSet() {
+        table = new long[INITIAL_CAPACITY];
+        Arrays.fill(table, EMPTY);
+
+        checkCellSet();
+    }
+
+    /**
+     * Adds a cell to the set.
+     * @param x the non-negative x-coordinate of the cell.
+     * @param y the non-negative y-coordinate of the cell.
+     */
+    void add(int x, int y) {
+        // keeping the table at most half full so that probe sequences stay short
+        if((size + 1) * 2 > table.length)
+            resize(table.length * 2);
+
+        if(insert(table, pack(x, y)))
+            size++;
+    }
+
+    /**
+     * @param x the x-coordinate of the cell.
+     * @param y the y-coordinate of the cell.
+     * @return true if (x, y) is in the set; false otherwise.
+     */
+    boolean contains(int x, int y) {
+        long[] table = this.table;
+        long key = pack(x, y);
+        int mask = table.length - 1;
+        int slot = hash(key) & mask;
+
+        // probing until the key or an empty slot is found. A slot being filled concurrently reads as EMPTY,
+        // as the new key or, where long writes are split, as half of each; half of EMPTY never matches a cell
+        while(table[slot] != EMPTY && table[slot] != key)
+            slot = (slot + 1) & mask;
+
+        return x >= 0 && y >= 0 && table[slot] == key;
+    }
+
+    /**
+     * @return the number of distinct cells in the set.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Rehashes all cells into a larger table.
+     * @param capacity the new table capacity. Must be a power of two.
+     */
+    private void resize(int capacity) {
+        long[] resized = new long[capacity];
+        Arrays.fill(resized, EMPTY);
+
+        for(long key : table)
+            if(key != EMPTY)
+                insert(resized, key);
+
+        table = resized;
+    }
+
+    /**
+     * Inserts a key into a table using linear probing.
+     * @param into the table to insert into. Must have at least one empty slot.
+     * @param key the packed cell to insert.
+     * @return true if the key was inserted; false if it was already in the table.
+     */
+    private static boolean insert(long[] into, long key) {
+        int mask = into.length - 1;
+        int slot = hash(key) & mask;
+
+        while(into[slot] != EMPTY && into[slot] != key)
+            slot = (slot + 1) & mask;
+
+        boolean isInserted = into[slot] == EMPTY;
+        into[slot] = key;
+
+        return isInserted;
+    }
+
+    /**
+     * @param x the x-coordinate of the cell.
+     * @param y the y-coordinate of the cell.
+     * @return the cell packed into a single key, x in the high and y in the low 32 bits.
+     */
+    private static long pack(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param key the packed cell.
+     * @return a well-mixed hash of the key (Fibonacci hashing).
+     */
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * Ensures CellSet invariants are not violated.
+     */
+    private void checkCellSet() {
+        Preconditions.checkNotNull(table, "table cannot be null.");
+        Preconditions.checkState(Integer.bitCount(table.length) == 1, "table capacity must be a power of two.");
+        Preconditions.checkState(size >= 0 && size < table.length, "size must leave an empty slot in table.");
+    }
+}
@@ -2,60 +2,116 @@ package ca.umanitoba.cs.veranyan.model.map;
 
 import ca.umanitoba.cs.veranyan.model.Activity;
 import ca.umanitoba.cs.veranyan.model.Profile;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.gear.GearType;
 import com.google.common.base.Preconditions;
 
 import java.time.DayOfWeek;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalAdjusters;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * The Map is the class that contains all the {@link Obstacle}
  * instances and {@link Activity} instances of an {@link Profile}.
+ * Each Profile has a Map of its own; Maps share no state, so different Maps can be used from different threads.
+ * <p>
+ * A Map is changed by one thread at a time. While that thread records an Activity with {@link Route#move(int, int)},
+ * other threads may render it with {@link #getRaster()} and {@link #getRaster(int)} or query it with
+ * {@link #isInRoute(int, int, int)}; they see the Routes as of some recent move. Other calls must not run
+ * concurrently with changes to the Map.
  */
 public class Map {
-    private static Map singleton;
+    public static final int TILE_SIZE = 64; // width and length of a raster tile, in cells
+
+    // when set, every public call re-validates the whole Map instead of only the changes made to it
+    private static final boolean FULL_CHECK = Boolean.getBoolean("ca.umanitoba.cs.veranyan.fullChecks");
+
+    // the Gear and Route of the Activities used as bounds to search the activities by start, never added to a Map
+    private static final Gear PROBE_GEAR = new Gear(GearType.ROAD_BIKE, "probe", 1);
+    private static final Route PROBE_ROUTE = new Route(0, 0);
 
     private final int width; // should be > 0
     private final int length; // should be > 0
     private final List<Obstacle> obstacles;
     private final SortedSet<Activity> activities;
+    private volatile Activity[] activityIndex; // activities in start order for positional access. null when out of date
 
-    /**
-     * The width and length will be used to instantiate a new Map
-     * singleton if the previous singleton has been destroyed.
-     *
-     * @param width the width for a new Map. Must be positive.
-     * @param length the length for a new Map. Must be positive.
-     * @return the new or already-existing Map singleton instance.
-     */
-    public static Map getInstance(int width, int length) {
-        // create new singleton instance if none exists
-        if (singleton == null)
-            singleton = new Map(width, length);
+    // occupancy grid: number of Obstacles and Route steps covering each cell (indexed by y * width + x)
+    private final int[] obstacleCells;
+    private final int[] routeCells;
 
-        singleton.checkMap();
+    // spatial indexes: Obstacles by their index in obstacles, and the straight runs of all Routes
+    private final RectangleIndex obstacleIndex;
+    private final RectangleIndex routeIndex;
+    private boolean isRouteIndexStale; // true when a Route was removed since routeIndex was filled
 
-        return singleton;
-    }
+    // activities whose Routes are not loaded into the occupancy grid and route index yet, found by their bounds
+    private final List<Activity> pendingActivities; // entries are set to null once indexed or removed
+    private final IdentityHashMap<Activity, Integer> pendingIds; // the position of each activity in pendingActivities
+    private final RectangleIndex pendingIndex; // the bounds of the pending activities, by position
+
+    // connected components and distance fields of the cells not in any Obstacle
+    private final ReachabilityIndex reachabilityIndex;
+
+    // step totals of ended activities, bucketed by start day. Activities are indexed once they have ended
+    private final StepIndex stepIndex;
+    private final List<Activity> unendedActivities; // activities not yet in stepIndex
+    private Duration longestActivity; // the longest duration of an activity in stepIndex
+
+    // rasters of the grid, cached until the Map changes
+    private volatile int modCount; // number of changes made to the Obstacles and Routes of the Map
+    private volatile CachedRaster raster; // the raster of all activities. May be null
+    private volatile CachedRaster activityRaster; // the raster of a single activity. May be null
+
+    // raster tiles of TILE_SIZE x TILE_SIZE cells, each cached until a change touches it
+    private final int tilesAcross; // number of tiles along the width of the Map
+    private final int tilesDown; // number of tiles along the length of the Map
+    private final int[] tileModCounts; // number of changes made within each tile
+    private final MapRaster[] tiles; // the cached raster of each tile. Entries may be null
+    private final int[] tileRasterModCounts; // tileModCounts of each tile when its raster was painted
 
     /**
-     * Destroys the singleton Map instance.
+     * A raster with what it was painted from, replaced as a whole so that concurrent readers never mix two rasters.
+     * @param raster the raster.
+     * @param activity the Activity whose Route is painted, or {@code null} if all Routes are.
+     * @param modCount modCount of the Map when the raster was painted.
      */
-    public static void destroyInstance(){
-        singleton = null;
-    }
+    private record CachedRaster(MapRaster raster, Activity activity, int modCount) { }
 
     /**
-     * Constructor for a new Map singleton.
+     * Constructor for a new, empty Map.
      * @param width the width for a new map. Must be positive.
      * @param length the length for a new map. Must be positive.
      */
-    private Map(int width, int length) {
+    public Map(int width, int length) {
+        // dimensions are validated before allocating the occupancy grid.
+        Preconditions.checkState(width >= 1, "width cannot be negative or 0.");
+        Preconditions.checkState(length >= 1, "length cannot be negative or 0.");
+
         this.width = width;
         this.length = length;
         this.obstacles = new ArrayList<>();
+        this.obstacleCells = new int[Math.multiplyExact(width, length)];
+        this.routeCells = new int[Math.multiplyExact(width, length)];
+        this.obstacleIndex = new RectangleIndex();
+        this.routeIndex = new RectangleIndex();
+        this.pendingActivities = new ArrayList<>();
+        this.pendingIds = new IdentityHashMap<>();
+        this.pendingIndex = new RectangleIndex();
+        this.reachabilityIndex = new ReachabilityIndex(this, width, length);
+        this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesDown = (length + TILE_SIZE - 1) / TILE_SIZE;
+        this.tileModCounts = new int[tilesAcross * tilesDown];
+        this.tiles = new MapRaster[tilesAcross * tilesDown];
+        this.tileRasterModCounts = new int[tilesAcross * tilesDown];
+        this.stepIndex = new StepIndex();
+        this.unendedActivities = new ArrayList<>();
+        this.longestActivity = Duration.ZERO;
 
         // activities should not have duplicates.
         // activities are put in ascending order in the Set (ordered by start time).
@@ -70,7 +126,7 @@ public class Map {
     }
 
     /**
-     * @return the (positive) width of the Map singleton. Must be positive.
+     * @return the (positive) width of the Map. Must be positive.
      */
     public int getWidth() {
         checkMap();
@@ -79,7 +135,7 @@ public class Map {
     }
 
     /**
-     * @return the (positive) length of the Map singleton. Must be positive.
+     * @return the (positive) length of the Map. Must be positive.
      */
     public int getLength(){
         checkMap();
@@ -99,7 +155,6 @@ public class Map {
 
         LocalDate start = currentDay; // default initialisation
         LocalDate end = currentDay; // default initialisation
-        int totalNumSteps = 0;
 
         switch (range){
             case WEEKS:
@@ -112,20 +167,59 @@ public class Map {
                 break;
         }
 
-        for(var activity : activities) {
-            if (activity.getEnd() != null) {
-                // if activity occurred this week
-                if (activity.getStart().isAfter(start.atStartOfDay()) &&
-                        activity.getEnd().isBefore(end.atStartOfDay())) {
+        int totalNumSteps = getTotalNumSteps(start, end);
 
-                    totalNumSteps += activity.getRoute().getStepsAmount();
-                }
-            }
+        checkMap();
+
+        return totalNumSteps;
+    }
+
+    /**
+     * Calculates the total number of steps passed in all ended Activities that started after
+     * the start of one day and ended before the start of another.
+     * @param from the day after whose start the Activities must have started. Must not be {@code null}.
+     * @param to the day before whose start the Activities must have ended. Must not be {@code null}.
+     * @return the total number of steps in range. Must be non-negative.
+     * @implNote the steps of ended Activities are summed per start day in a Fenwick tree, so the total
+     * takes O(log n) time plus a range query over the few Activities that may run past the end of the range.
+     */
+    public int getTotalNumSteps(LocalDate from, LocalDate to) {
+        checkMap();
+        Preconditions.checkNotNull(from, "from cannot be null.");
+        Preconditions.checkNotNull(to, "to cannot be null.");
+
+        indexEndedActivities();
+
+        LocalDateTime rangeStart = from.atStartOfDay();
+        LocalDateTime rangeEnd = to.atStartOfDay();
+
+        // steps of all ended activities starting in [rangeStart, rangeEnd)
+        long totalNumSteps = stepIndex.sum(from.toEpochDay(), to.toEpochDay());
+
+        if(rangeStart.isBefore(rangeEnd)) {
+            /*
+            only activities starting within the longest activity duration of rangeEnd can end after it.
+            Those, and an activity starting exactly at rangeStart, are not in range and are subtracted.
+             */
+            LocalDateTime overlapStart = rangeEnd.minus(longestActivity);
+            if(overlapStart.isBefore(rangeStart))
+                overlapStart = rangeStart;
+
+            for(var activity : activitiesBetween(overlapStart, rangeEnd))
+                if(activity.getEnd() != null &&
+                        (activity.getStart().equals(rangeStart) || !activity.getEnd().isBefore(rangeEnd)))
+                    totalNumSteps -= activity.getStepsAmount();
+
+            // an activity starting exactly at rangeStart that the loop above did not reach
+            if(overlapStart.isAfter(rangeStart))
+                for(var activity : activitiesBetween(rangeStart, rangeStart.plusNanos(1)))
+                    if(activity.getEnd() != null)
+                        totalNumSteps -= activity.getStepsAmount();
         }
 
         checkMap();
 
-        return totalNumSteps;
+        return Math.toIntExact(totalNumSteps);
     }
 
     /**
@@ -137,6 +231,58 @@ public class Map {
         return Collections.unmodifiableList(obstacles);
     }
 
+    /**
+     * Finds an Obstacle covering a point on the Map.
+     * @param x the x-coordinate of the point on the Map.
+     * @param y the y-coordinate of the point on the Map.
+     * @return the first Obstacle (in the order of {@link #getObstacles()}) covering (x, y),
+     * or {@code null} if there is none.
+     * @implNote the Obstacles are kept in an R-tree, so the lookup takes O(log n + k) time.
+     */
+    public Obstacle getObstacleAt(int x, int y){
+        checkMap();
+
+        Obstacle obstacle = null;
+
+        // the occupancy grid rules out most points without searching the tree
+        if(isInObstacle(x, y)) {
+            BitSet found = new BitSet();
+            obstacleIndex.forEachOverlapping(x, y, x, y, found::set);
+            obstacle = obstacles.get(found.nextSetBit(0));
+        }
+
+        checkMap();
+
+        return obstacle;
+    }
+
+    /**
+     * Finds the Obstacles overlapping a rectangle on the Map.
+     * @param topLeftX the upper-left x-coordinate of the rectangle.
+     * @param topLeftY the upper-left y-coordinate of the rectangle.
+     * @param bottomRightX the lower-right x-coordinate of the rectangle. Must be greater than or equal to topLeftX.
+     * @param bottomRightY the lower-right y-coordinate of the rectangle. Must be greater than or equal to topLeftY.
+     * @return the unmodifiable list of Obstacles sharing at least one point with the rectangle,
+     * in the order of {@link #getObstacles()}. Must not be {@code null}.
+     * @implNote the Obstacles are kept in an R-tree, so the lookup takes O(log n + k) time.
+     */
+    public List<Obstacle> getObstaclesOverlapping(int topLeftX, int topLeftY, int bottomRightX, int bottomRightY){
+        checkMap();
+        Preconditions.checkState(topLeftX <= bottomRightX, "topLeftX cannot be greater than bottomRightX.");
+        Preconditions.checkState(topLeftY <= bottomRightY, "topLeftY cannot be greater than bottomRightY.");
+
+        BitSet found = new BitSet(); // the indices of the overlapping Obstacles
+        obstacleIndex.forEachOverlapping(topLeftX, topLeftY, bottomRightX, bottomRightY, found::set);
+
+        List<Obstacle> overlapping = new ArrayList<>(found.cardinality());
+        for(int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1))
+            overlapping.add(obstacles.get(i));
+
+        checkMap();
+
+        return Collections.unmodifiableList(overlapping);
+    }
+
     /**
      * Adds an Obstacle to the Map instance.
      * Obstacle must not be out of Map instance boundaries.
@@ -153,10 +299,46 @@ public class Map {
     public void addObstacle(int topLeftX, int topLeftY, int bottomRightX, int bottomRightY) {
         checkMap();
 
-        obstacles.add(new Obstacle(
+        var obstacle = new Obstacle(
                 new Coordinate(topLeftX, topLeftY),
                 new Coordinate(bottomRightX, bottomRightY)
-        ));
+        );
+
+        validateObstacle(obstacle);
+        insertObstacle(obstacle);
+        reachabilityIndex.obstacleAdded();
+        modCount++;
+
+        checkMap();
+    }
+
+    /**
+     * Adds a batch of Obstacles to the Map. Either every Obstacle is added or, if any of them is out of
+     * Map boundaries or overlaps a Route, none is. Obstacles of the batch may overlap each other.
+     * @param batch the Obstacles to add, in the order they are added. Must not be {@code null}.
+     *              Must not contain {@code null}.
+     * @implNote the whole batch is validated against the route index before any Obstacle is added, and
+     * the reachability labels are invalidated once for the batch.
+     */
+    public void addObstacles(Collection<Obstacle> batch){
+        checkMap();
+        Preconditions.checkNotNull(batch, "batch cannot be null.");
+
+        List<Obstacle> added = new ArrayList<>(batch);
+
+        // nothing is added until every Obstacle is validated
+        for(var obstacle : added) {
+            Preconditions.checkNotNull(obstacle, "obstacles entries cannot be null.");
+            validateObstacle(obstacle);
+        }
+
+        for(var obstacle : added)
+            insertObstacle(obstacle);
+
+        if(!added.isEmpty()) {
+            reachabilityIndex.obstacleAdded();
+            modCount++;
+        }
 
         checkMap();
     }
@@ -168,7 +350,18 @@ public class Map {
     public void removeObstacle(int index){
         checkMap();
 
-        obstacles.remove(index);
+        Obstacle removed = obstacles.remove(index);
+        paintObstacle(removed, -1);
+        reachabilityIndex.obstacleRemoved(removed);
+        modCount++;
+
+        // the Obstacles after index have moved down, so their ids are reassigned
+        obstacleIndex.clear();
+        for(int i = 0; i < obstacles.size(); i++) {
+            Obstacle obstacle = obstacles.get(i);
+            obstacleIndex.add(obstacle.topLeftCoord().x(), obstacle.topLeftCoord().y(),
+                    obstacle.bottomRightCoord().x(), obstacle.bottomRightCoord().y(), i);
+        }
 
         checkMap();
     }
@@ -182,14 +375,113 @@ public class Map {
         return Collections.unmodifiableSortedSet(activities);
     }
 
+    /**
+     * @param index the index of the Activity in start-time order.
+     * @return the Activity at the given index. Must not be {@code null}.
+     * @implNote the activities are copied into an array on the first positional access after a change,
+     * so repeated lookups (such as rendering a single Activity) take constant time.
+     */
+    public Activity getActivity(int index){
+        checkMap();
+
+        Activity[] sorted = getActivityIndex();
+        Preconditions.checkElementIndex(index, sorted.length);
+
+        return sorted[index];
+    }
+
+    /**
+     * Finds the Activities that started within a time range.
+     * @param from the start of the range (inclusive). Must not be {@code null}.
+     * @param to the end of the range (exclusive). Must not be {@code null}.
+     * @return the unmodifiable list of Activities starting in [from, to), in start order. Must not be {@code null}.
+     * @implNote the range is found by binary search over the array of {@link #getActivity(int)} while it is up
+     * to date, or else in the start-ordered set of activities, so the cost is O(log n) plus the number of
+     * Activities in range, also right after a change. The list is a snapshot: later changes to the Map
+     * are not reflected in it.
+     */
+    public List<Activity> activitiesBetween(LocalDateTime from, LocalDateTime to){
+        checkMap();
+        Preconditions.checkNotNull(from, "from cannot be null.");
+        Preconditions.checkNotNull(to, "to cannot be null.");
+
+        List<Activity> found;
+        Activity[] sorted = activityIndex;
+        if(sorted != null) {
+            int first = lowerBound(sorted, from);
+            found = Arrays.asList(sorted).subList(first, Math.max(first, lowerBound(sorted, to)));
+        }
+        else if(from.isBefore(to))
+            // rebuilding the array would take O(n) time, so the range is copied out of the set instead
+            found = new ArrayList<>(activities.subSet(startProbe(from), startProbe(to)));
+        else found = List.of();
+
+        return Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Streams the Activities that started within a time range.
+     * @param from the start of the range (inclusive). Must not be {@code null}.
+     * @param to the end of the range (exclusive). Must not be {@code null}.
+     * @return the stream of Activities starting in [from, to), in start order. Must not be {@code null}.
+     * @implNote see {@link #activitiesBetween(LocalDateTime, LocalDateTime)}.
+     */
+    public Stream<Activity> streamActivitiesBetween(LocalDateTime from, LocalDateTime to){
+        checkMap();
+        Preconditions.checkNotNull(from, "from cannot be null.");
+        Preconditions.checkNotNull(to, "to cannot be null.");
+
+        return activitiesBetween(from, to).stream();
+    }
+
     /**
      * Adds an activity to the Map instance.
      * @param activity the activity instance to add to Map. Must not be {@code null}.
+     * @implNote an ended Activity whose Route is not loaded (see {@link Activity#isRouteLoaded()}) keeps it
+     * unloaded if its bounds are within the Map and clear of every Obstacle. Its Route is loaded the first
+     * time a query or change needs the cells within its bounds.
      */
     public void addActivity(Activity activity){
         checkMap();
 
-        activities.add(activity);
+        Preconditions.checkNotNull(activity, "activities entries cannot be null.");
+        boolean isDeferred = validateActivity(activity);
+
+        if(insertActivity(activity, isDeferred))
+            activityIndex = null;
+
+        checkMap();
+    }
+
+    /**
+     * Adds a batch of activities to the Map, such as a season of rides being imported.
+     * Either every activity is added or, if any of them is invalid, none is. As with
+     * {@link #addActivity(Activity)}, an activity starting at the same time as another is not added.
+     * @param batch the activities to add. Must not be {@code null}. Must not contain {@code null}.
+     * @implNote the whole batch is validated against the occupancy grid before any activity is added. The
+     * activities are then inserted in start order and the positional index is dropped once, so adding k
+     * activities to a Map of n takes O(k log n) time plus the steps of their Routes.
+     */
+    public void addActivities(Collection<Activity> batch){
+        checkMap();
+        Preconditions.checkNotNull(batch, "batch cannot be null.");
+
+        Activity[] sorted = batch.toArray(new Activity[0]);
+        for(var activity : sorted)
+            Preconditions.checkNotNull(activity, "activities entries cannot be null.");
+        Arrays.sort(sorted, Comparator.comparing(Activity::getStart));
+
+        // nothing is added until every activity is validated
+        boolean[] isDeferred = new boolean[sorted.length];
+        for(int i = 0; i < sorted.length; i++)
+            isDeferred[i] = validateActivity(sorted[i]);
+
+        boolean isChanged = false;
+        for(int i = 0; i < sorted.length; i++)
+            isChanged |= insertActivity(sorted[i], isDeferred[i]);
+
+        if(isChanged)
+            activityIndex = null;
 
         checkMap();
     }
@@ -201,15 +493,133 @@ public class Map {
     public void removeActivity(int index){
         checkMap();
 
-        Iterator<Activity> iterator = activities.iterator();
+        Activity activity = getActivity(index);
+        activities.remove(activity);
+        activityIndex = null;
+        modCount++;
+
+        indexEndedActivities();
+        if(!unendedActivities.remove(activity))
+            indexSteps(activity, -1);
+
+        Integer pendingId = pendingIds.remove(activity);
+        if(pendingId != null) {
+            // the Route was never indexed, so only the raster tiles it was painted on from its header change
+            Bounds bounds = activity.getBounds();
+            invalidateTiles(bounds.minX(), bounds.minY(), bounds.maxX(), bounds.maxY());
+            removePending(pendingId);
+        }
+        else {
+            Route route = activity.getRoute();
+            route.map = null;
+            indexRoute(route, 0, -1);
+            isRouteIndexStale = true; // the runs of the Route are dropped when the index is next needed
+        }
+
+        checkMap();
+    }
+
+    /**
+     * @return the raster of the Obstacles and all the Routes on the Map. Must not be {@code null}.
+     * @implNote the raster is cached until the next change to the Obstacles or Routes of the Map.
+     */
+    public MapRaster getRaster(){
+        checkMap();
+
+        // modCount is read before painting, so a move made while painting makes the next call repaint
+        int paintedModCount = modCount;
+        CachedRaster cached = raster;
+        if(cached == null || cached.modCount() != paintedModCount){
+            cached = new CachedRaster(new MapRaster(this, activities), null, paintedModCount);
+            raster = cached;
+        }
 
-        // omitting previous elements to reach element at appropriate index;
-        for(int j = 0; j < index; j++)
-            iterator.next();
+        return cached.raster();
+    }
+
+    /**
+     * @param index the index of the Activity whose Route is painted.
+     * @return the raster of the Obstacles and the Route of the Activity at index. Must not be {@code null}.
+     * @implNote the raster is cached until the next change to the Obstacles or Routes of the Map.
+     */
+    public MapRaster getRaster(int index){
+        checkMap();
+
+        Activity activity = getActivity(index);
+        int paintedModCount = modCount;
+        CachedRaster cached = activityRaster;
+        if(cached == null || cached.activity() != activity || cached.modCount() != paintedModCount){
+            cached = new CachedRaster(new MapRaster(this, List.of(activity)), activity, paintedModCount);
+            activityRaster = cached;
+        }
 
-        activities.remove(iterator.next());
+        return cached.raster();
+    }
 
+    /**
+     * @param tileX the column of the tile, counted in tiles. Must be less than the number of tile columns.
+     * @param tileY the row of the tile, counted in tiles. Must be less than the number of tile rows.
+     * @return the raster of the Obstacles and all the Routes within the tile. Must not be {@code null}.
+     * The tile covers up to {@link #TILE_SIZE} x {@link #TILE_SIZE} cells starting at
+     * (tileX * TILE_SIZE, tileY * TILE_SIZE); tiles on the right and bottom edges may be smaller.
+     * @implNote each tile is cached until an Obstacle or Route within it changes, so panning a
+     * viewport only paints the tiles that became visible or changed. Painting a tile takes time
+     * proportional to its cells and the Obstacles and pending Routes overlapping it.
+     */
+    public MapRaster getTile(int tileX, int tileY){
         checkMap();
+        Preconditions.checkElementIndex(tileX, tilesAcross, "tileX");
+        Preconditions.checkElementIndex(tileY, tilesDown, "tileY");
+
+        int tile = tileY * tilesAcross + tileX;
+        if(tiles[tile] == null || tileRasterModCounts[tile] != tileModCounts[tile]){
+            int originX = tileX * TILE_SIZE;
+            int originY = tileY * TILE_SIZE;
+
+            tiles[tile] = paintTile(originX, originY,
+                    Math.min(TILE_SIZE, width - originX), Math.min(TILE_SIZE, length - originY));
+            tileRasterModCounts[tile] = tileModCounts[tile];
+        }
+
+        return tiles[tile];
+    }
+
+    /**
+     * Paints the Obstacles and all the Routes within a window of the Map, finding them by the window.
+     * @param originX the x-coordinate of the top-left cell of the window. Must be within Map boundaries.
+     * @param originY the y-coordinate of the top-left cell of the window. Must be within Map boundaries.
+     * @param tileWidth the width of the window. Must be positive and fit in the Map.
+     * @param tileLength the length of the window. Must be positive and fit in the Map.
+     * @return the raster of the window. Must not be {@code null}.
+     */
+    private MapRaster paintTile(int originX, int originY, int tileWidth, int tileLength){
+        MapRaster tile = new MapRaster(originX, originY, tileWidth, tileLength);
+        int maxX = originX + tileWidth - 1; // the largest x-coordinate of the window
+        int maxY = originY + tileLength - 1; // the largest y-coordinate of the window
+
+        BitSet found = new BitSet(); // the positions of the Obstacles, then of the pending activities, found
+        obstacleIndex.forEachOverlapping(originX, originY, maxX, maxY, found::set);
+        for(int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1))
+            tile.paintObstacle(obstacles.get(i));
+
+        // the route index does not tell Routes apart, so the loaded Routes are read from the occupancy grid
+        for(int y = originY; y <= maxY; y++)
+            for(int x = originX; x <= maxX; x++)
+                if(routeCells[y * width + x] > 0)
+                    tile.paintRoute(x, y);
+
+        // pending Routes are walked without loading them into the occupancy grid
+        if(!pendingIds.isEmpty()) {
+            found.clear();
+            pendingIndex.forEachOverlapping(originX, originY, maxX, maxY, found::set);
+            for(int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                Activity activity = pendingActivities.get(i);
+                if(activity != null)
+                    tile.paintRoute(activity.getRoute());
+            }
+        }
+
+        return tile;
     }
 
     /**
@@ -222,13 +632,8 @@ public class Map {
         // does not contain a checkMap() invariant check in order to avoid stack overflow.
         // NOTE: refer to the checkMap() implementation for further details.
 
-        boolean isInObstacle = false;
-
-        // going over all the obstacles
-        for(int i = 0; i < obstacles.size() && !isInObstacle; i++)
-            isInObstacle = obstacles.get(i).contains(x, y);
-
-        return isInObstacle;
+        // points outside the Map cannot be covered by an Obstacle
+        return isWithinMap(x, y) && obstacleCells[y * width + x] > 0;
     }
 
     /**
@@ -240,12 +645,12 @@ public class Map {
     public boolean isInRoute(int x, int y){
         checkMap();
 
+        // points outside the Map cannot be covered by a Route
         boolean isInRoute = false;
-
-        Iterator<Activity> iterator = activities.iterator();
-
-        while(iterator.hasNext() && !isInRoute)
-            isInRoute = iterator.next().getRoute().contains(x, y);
+        if(isWithinMap(x, y)) {
+            indexPendingRoutes(x, y, x, y);
+            isInRoute = routeCells[y * width + x] > 0;
+        }
 
         checkMap();
 
@@ -262,26 +667,405 @@ public class Map {
     public boolean isInRoute(int index, int x, int y){
         checkMap();
 
-        Iterator<Activity> iterator = activities.iterator();
+        // the bounds rule out most points without loading the Route
+        Activity activity = getActivity(index);
+        return activity.getBounds().contains(x, y) && activity.getRoute().contains(x, y);
+    }
+
+    /**
+     * Determines whether one point on the Map can be reached from another without going through any Obstacle,
+     * moving in the four directions of {@link Route#move(int, int)}.
+     * @param from the first point. Must be within Map boundaries. Must not be {@code null}.
+     * @param to the second point. Must be within Map boundaries. Must not be {@code null}.
+     * @return true if neither point is in an Obstacle and an obstacle-free path joins them; false otherwise.
+     * @implNote the free cells of the Map are labelled with their connected component, so this compares
+     * two labels. Removing an Obstacle merges labels in place; adding one relabels the Map on the next query.
+     */
+    public boolean isReachable(Coordinate from, Coordinate to){
+        checkMap();
+        checkPoint(from);
+        checkPoint(to);
+
+        boolean isReachable = reachabilityIndex.isReachable(from.x(), from.y(), to.x(), to.y());
+
+        checkMap();
+
+        return isReachable;
+    }
+
+    /**
+     * Calculates the number of steps of a shortest path between two points on the Map that does not go
+     * through any Obstacle, moving in the four directions of {@link Route#move(int, int)}.
+     * @param from the first point. Must be within Map boundaries. Must not be {@code null}.
+     * @param to the second point. Must be within Map boundaries. Must not be {@code null}.
+     * @return the number of steps between the points, or -1 if {@code to} cannot be reached from {@code from}.
+     * @implNote unreachable points are ruled out by their labels. Otherwise the distance is read from a
+     * breadth-first distance field of either point; the fields of the few most recently used points are
+     * kept until the Obstacles change, so repeated queries from the same start point take constant time.
+     */
+    public int getDistance(Coordinate from, Coordinate to){
+        checkMap();
+        checkPoint(from);
+        checkPoint(to);
+
+        int distance = reachabilityIndex.getDistance(from.x(), from.y(), to.x(), to.y());
+
+        checkMap();
+
+        return distance;
+    }
+
+    /**
+     * Validates a move of a Route on this Map before {@link Route#move(int, int)} adds its Coordinates.
+     * @param x the x-coordinate the move starts from.
+     * @param y the y-coordinate the move starts from.
+     * @param dx the change in x-coordinate per step. Must be any of [-1, 0, 1].
+     * @param dy the change in y-coordinate per step. Must be any of [-1, 0, 1].
+     * @param steps the number of steps of the move.
+     */
+    void checkMove(int x, int y, int dx, int dy, int steps) {
+        for(int i = 1; i <= steps; i++)
+            checkStep(x + dx * i, y + dy * i);
+    }
+
+    /**
+     * Indexes the Coordinates added to a Route of this Map by {@link Route#move(int, int)}.
+     * @param route the Route that was moved. Must belong to an Activity on this Map.
+     * @param fromIndex the index of the first Coordinate added by the move.
+     */
+    void routeMoved(Route route, int fromIndex) {
+        indexRoute(route, fromIndex, 1);
+        modCount++;
 
-        // omitting previous elements to reach element at appropriate index;
-        for(int i = 0; i < index; i++)
-            iterator.next();
+        // a move is a straight run from its first to its last Coordinate
+        Coordinate first = route.getCoordinate(fromIndex);
+        Coordinate last = route.getCoordinate(route.getStepsAmount() - 1);
+        indexRun(Math.min(first.x(), last.x()), Math.min(first.y(), last.y()),
+                Math.max(first.x(), last.x()), Math.max(first.y(), last.y()));
 
         checkMap();
+    }
+
+    /**
+     * @return the activities in start order. The array is rebuilt on the first call after the activities change.
+     */
+    private Activity[] getActivityIndex(){
+        Activity[] sorted = activityIndex;
+        if(sorted == null) {
+            sorted = activities.toArray(new Activity[0]);
+            activityIndex = sorted;
+        }
+
+        return sorted;
+    }
+
+    /**
+     * @param time the start time of the probe. Must not be {@code null}.
+     * @return an Activity starting at time, only to be compared with the activities to search them by start.
+     */
+    private static Activity startProbe(LocalDateTime time){
+        return new Activity(PROBE_GEAR, PROBE_ROUTE, time, null);
+    }
+
+    /**
+     * @param sorted the activities in start order.
+     * @param time the time to search for.
+     * @return the index of the first activity starting at or after time.
+     */
+    private static int lowerBound(Activity[] sorted, LocalDateTime time){
+        int low = 0;
+        int high = sorted.length;
+
+        while(low < high){
+            int mid = (low + high) >>> 1;
+            if(sorted[mid].getStart().isBefore(time))
+                low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+
+    /**
+     * Moves the activities that have ended since they were added into the step index.
+     * @implNote Activities are ended by {@link Activity#endActivity()} without notifying the Map,
+     * so they are picked up here. There are few unended activities at any time.
+     */
+    private void indexEndedActivities(){
+        Iterator<Activity> iterator = unendedActivities.iterator();
+
+        while(iterator.hasNext()){
+            Activity activity = iterator.next();
+            if(activity.getEnd() != null){
+                iterator.remove();
+                indexSteps(activity, 1);
+            }
+        }
+    }
+
+    /**
+     * Adds (or removes) the steps of an ended activity to (or from) the step index.
+     * @param activity the ended activity. Must not be {@code null}.
+     * @param sign 1 when the activity is added, -1 when it is removed.
+     */
+    private void indexSteps(Activity activity, int sign){
+        stepIndex.add(activity.getStart().toLocalDate().toEpochDay(),
+                sign * (long) activity.getStepsAmount());
+
+        Duration duration = Duration.between(activity.getStart(), activity.getEnd());
+        if(duration.compareTo(longestActivity) > 0)
+            longestActivity = duration;
+    }
+
+    /**
+     * Ensures a new Obstacle is within Map boundaries and does not overlap any Route.
+     * @param obstacle the Obstacle to validate. Must not be {@code null}.
+     */
+    private void validateObstacle(Obstacle obstacle){
+        int topLeftX = obstacle.topLeftCoord().x();
+        int topLeftY = obstacle.topLeftCoord().y();
+        int bottomRightX = obstacle.bottomRightCoord().x();
+        int bottomRightY = obstacle.bottomRightCoord().y();
+
+        // bounds are checked before the Obstacle is painted onto the occupancy grid
+        Preconditions.checkState(bottomRightX < width, "Obstacle width cannot be out of bounds.");
+        Preconditions.checkState(bottomRightY < length, "Obstacle length cannot be out of bounds.");
+
+        // the new Obstacle cannot cover any Route on the Map; only the Route runs near it are compared
+        indexPendingRoutes(topLeftX, topLeftY, bottomRightX, bottomRightY);
+        Preconditions.checkState(!getRouteIndex().anyOverlapping(topLeftX, topLeftY, bottomRightX, bottomRightY),
+                "obstacle cannot overlap with a route.");
+    }
+
+    /**
+     * Adds a validated Obstacle to the obstacles, the obstacle index and the occupancy grid.
+     * @param obstacle the Obstacle to add. Must not be {@code null}.
+     */
+    private void insertObstacle(Obstacle obstacle){
+        obstacles.add(obstacle);
+        obstacleIndex.add(obstacle.topLeftCoord().x(), obstacle.topLeftCoord().y(),
+                obstacle.bottomRightCoord().x(), obstacle.bottomRightCoord().y(), obstacles.size() - 1);
+        paintObstacle(obstacle, 1);
+    }
+
+    /**
+     * Ensures the Route of a new activity is within Map boundaries and does not overlap any Obstacle.
+     * @param activity the activity to validate. Must not be {@code null}.
+     * @return true if the Route was validated by its bounds alone, so it can stay unloaded; false otherwise.
+     */
+    private boolean validateActivity(Activity activity){
+        Bounds bounds = activity.getBounds();
+        Preconditions.checkState(isWithinMap(bounds.minX(), bounds.minY()) && isWithinMap(bounds.maxX(), bounds.maxY()),
+                "route cannot be out of bounds.");
+
+        // a Route clear of the Obstacles by its bounds alone can be validated without loading it
+        boolean isDeferred = !activity.isRouteLoaded() && activity.getEnd() != null &&
+                !obstacleIndex.anyOverlapping(bounds.minX(), bounds.minY(), bounds.maxX(), bounds.maxY());
+
+        // only the new Route is validated; the rest of the Map was validated when it was added
+        if(!isDeferred)
+            activity.getRoute().forEachStep(0, this::checkStep);
+
+        return isDeferred;
+    }
+
+    /**
+     * Adds a validated activity to the activities and indexes it, unless an activity with the same start
+     * is already on the Map. Does not drop the positional index.
+     * @param activity the activity to add. Must not be {@code null}.
+     * @param isDeferred true if the Route is to stay unloaded until needed; false if it is indexed now.
+     * @return true if the activity was added; false otherwise.
+     */
+    private boolean insertActivity(Activity activity, boolean isDeferred){
+        boolean isAdded = activities.add(activity);
+
+        if(isAdded) {
+            if(isDeferred) {
+                Bounds bounds = activity.getBounds();
+                pendingIds.put(activity, pendingActivities.size());
+                pendingIndex.add(bounds.minX(), bounds.minY(), bounds.maxX(), bounds.maxY(), pendingActivities.size());
+                pendingActivities.add(activity);
+
+                // the Route is not indexed, but rasters paint it from the activities, so they are repainted
+                invalidateTiles(bounds.minX(), bounds.minY(), bounds.maxX(), bounds.maxY());
+                modCount++;
+            }
+            else loadRoute(activity);
+
+            // the steps of an activity are summed once it has ended, as its Route cannot change after
+            if(activity.getEnd() != null)
+                indexSteps(activity, 1);
+            else unendedActivities.add(activity);
+        }
+
+        return isAdded;
+    }
+
+    /**
+     * Adds the Route of an activity to the occupancy grid and the route index.
+     * @param activity the activity whose Route is added. Must be on this Map and validated.
+     */
+    private void loadRoute(Activity activity){
+        Route route = activity.getRoute();
+
+        indexRoute(route, 0, 1);
+        route.forEachRun(this::indexRun);
+        modCount++;
+        route.map = this; // Route.move() keeps the occupancy grid up to date from now on
+    }
+
+    /**
+     * Loads the pending Routes whose bounds overlap a rectangle into the occupancy grid and the route index.
+     * @param minX the smallest x-coordinate of the rectangle.
+     * @param minY the smallest y-coordinate of the rectangle.
+     * @param maxX the largest x-coordinate of the rectangle.
+     * @param maxY the largest y-coordinate of the rectangle.
+     */
+    private void indexPendingRoutes(int minX, int minY, int maxX, int maxY){
+        if(!pendingIds.isEmpty()) {
+            BitSet found = new BitSet(); // the positions of the pending activities to load
+            pendingIndex.forEachOverlapping(minX, minY, maxX, maxY, found::set);
+
+            for(int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+                Activity activity = pendingActivities.get(i);
+                if(activity != null) {
+                    pendingIds.remove(activity);
+                    removePending(i);
+                    loadRoute(activity);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops an activity from the pending activities, emptying them once none is left.
+     * @param pendingId the position of the activity in pendingActivities.
+     */
+    private void removePending(int pendingId){
+        pendingActivities.set(pendingId, null);
+
+        if(pendingIds.isEmpty()) {
+            pendingActivities.clear();
+            pendingIndex.clear();
+        }
+    }
+
+    /**
+     * Adds (or removes) an Obstacle to (or from) the occupancy grid.
+     * @param obstacle the Obstacle to paint. Must be within Map boundaries.
+     * @param delta 1 when the Obstacle is added, -1 when it is removed.
+     */
+    private void paintObstacle(Obstacle obstacle, int delta) {
+        for(int y = obstacle.topLeftCoord().y(); y <= obstacle.bottomRightCoord().y(); y++)
+            for(int x = obstacle.topLeftCoord().x(); x <= obstacle.bottomRightCoord().x(); x++)
+                obstacleCells[y * width + x] += delta;
+
+        invalidateTiles(obstacle.topLeftCoord().x(), obstacle.topLeftCoord().y(),
+                obstacle.bottomRightCoord().x(), obstacle.bottomRightCoord().y());
+    }
+
+    /**
+     * Invalidates the raster tiles a rectangle intersects.
+     * @param minX the smallest x-coordinate of the rectangle. Must be within Map boundaries.
+     * @param minY the smallest y-coordinate of the rectangle. Must be within Map boundaries.
+     * @param maxX the largest x-coordinate of the rectangle. Must be within Map boundaries.
+     * @param maxY the largest y-coordinate of the rectangle. Must be within Map boundaries.
+     */
+    private void invalidateTiles(int minX, int minY, int maxX, int maxY) {
+        for(int tileY = minY / TILE_SIZE; tileY <= maxY / TILE_SIZE; tileY++)
+            for(int tileX = minX / TILE_SIZE; tileX <= maxX / TILE_SIZE; tileX++)
+                tileModCounts[tileY * tilesAcross + tileX]++;
+    }
+
+    /**
+     * Adds (or removes) the Coordinates of a Route to (or from) the occupancy grid.
+     * @param route the Route to index. Must be within Map boundaries.
+     * @param fromIndex the index of the first Coordinate to index.
+     * @param delta 1 when the Coordinates are added, -1 when they are removed.
+     */
+    private void indexRoute(Route route, int fromIndex, int delta) {
+        route.forEachStep(fromIndex, (x, y) -> {
+            routeCells[y * width + x] += delta;
+            tileModCounts[(y / TILE_SIZE) * tilesAcross + (x / TILE_SIZE)]++; // invalidating the raster tile
+        });
+    }
+
+    /**
+     * Adds a straight run of Route steps to the route index.
+     * @param minX the smallest x-coordinate of the run.
+     * @param minY the smallest y-coordinate of the run.
+     * @param maxX the largest x-coordinate of the run.
+     * @param maxY the largest y-coordinate of the run.
+     */
+    private void indexRun(int minX, int minY, int maxX, int maxY) {
+        routeIndex.add(minX, minY, maxX, maxY, 0);
+    }
+
+    /**
+     * @return the index of the straight runs of all Routes on the Map, refilled from the
+     * remaining Routes if a Route was removed since it was last filled.
+     */
+    private RectangleIndex getRouteIndex() {
+        if(isRouteIndexStale) {
+            routeIndex.clear();
+            for(var activity : activities)
+                if(!pendingIds.containsKey(activity))
+                    activity.getRoute().forEachRun(this::indexRun);
+            isRouteIndexStale = false;
+        }
+
+        return routeIndex;
+    }
+
+    /**
+     * Ensures a Route step is within Map boundaries and not within any Obstacle.
+     * @param x the x-coordinate of the step.
+     * @param y the y-coordinate of the step.
+     */
+    private void checkStep(int x, int y) {
+        Preconditions.checkState(isWithinMap(x, y), "route cannot be out of bounds.");
+        Preconditions.checkState(obstacleCells[y * width + x] == 0, "route cannot overlap with an obstacle.");
+    }
+
+    /**
+     * Ensures a point is not null and is within Map boundaries.
+     * @param point the point to check.
+     */
+    private void checkPoint(Coordinate point) {
+        Preconditions.checkNotNull(point, "point cannot be null.");
+        Preconditions.checkState(isWithinMap(point.x(), point.y()), "point cannot be out of bounds.");
+    }
 
-        return iterator.next().getRoute().contains(x, y);
+    /**
+     * @param x the x-coordinate of the point.
+     * @param y the y-coordinate of the point.
+     * @return true if (x, y) is within Map boundaries; false otherwise.
+     */
+    private boolean isWithinMap(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < length;
     }
 
     /**
      * Ensures Map invariants are not violated.
+     * @implNote Obstacles and Routes are validated when they are added or moved, so walking
+     * all of them is only done when the {@code ca.umanitoba.cs.veranyan.fullChecks} system property is set.
      */
     private void checkMap(){
         Preconditions.checkState(width >= 1, "width cannot be negative or 0.");
         Preconditions.checkState(length >= 1, "length cannot be negative or 0.");
         Preconditions.checkNotNull(obstacles, "obstacles cannot be null.");
         Preconditions.checkNotNull(activities, "activities cannot be null.");
+        Preconditions.checkState(obstacleIndex.size() == obstacles.size(), "obstacleIndex must index every obstacle.");
+        Preconditions.checkState(pendingIds.size() <= pendingActivities.size(), "pendingIds cannot outnumber pendingActivities.");
 
+        if(FULL_CHECK)
+            checkMapFully();
+    }
+
+    /**
+     * Ensures Map invariants are not violated by walking every Obstacle and every Route step.
+     */
+    private void checkMapFully(){
         // checks obstacle not null and is within bounds
         for(var obstacle : obstacles){
             Preconditions.checkNotNull(obstacle, "obstacles entries cannot be null.");
@@ -293,11 +1077,12 @@ public class Map {
 
         // checks activity not null and route is within bounds
         // checks for obstacles and routes not overlapping
+        // pending Routes are not walked, as that would load them; their bounds were checked when they were added
         for(var activity : activities){
             Preconditions.checkNotNull(activity, "activities entries cannot be null.");
 
-            Route route = activity.getRoute(); // the route of the activity
-            for(int i = 0; i < route.getStepsAmount(); i++){
+            Route route = pendingIds.containsKey(activity) ? null : activity.getRoute(); // the route of the activity
+            for(int i = 0; route != null && i < route.getStepsAmount(); i++){
                 var coordinate = route.getCoordinate(i); // current coordinate
 
                 // route within bounds check
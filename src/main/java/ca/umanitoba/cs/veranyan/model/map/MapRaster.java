@@ -0,0 +1,174 @@
+package ca.umanitoba.cs.veranyan.model.map;
+
+import ca.umanitoba.cs.veranyan.model.Activity;
+import com.google.common.base.Preconditions;
+
+/**
+ * A MapRaster is a snapshot of a rectangular window of the {@link Map} grid with every cell's contents
+ * painted in layers: an {@link Obstacle} layer and a {@link Route} layer. A cell can be in both layers.
+ * Obstacles are painted as filled rectangles and Routes are walked once, clipped to the window, so building
+ * a raster takes O(cells + obstacle area + route steps) time, and reading a cell takes constant time.
+ * The Map paints its tiles with only the Obstacles and Routes it finds within them.
+ */
+public class MapRaster {
+    // layer bits of a cell
+    private static final byte OBSTACLE_LAYER = 1;
+    private static final byte ROUTE_LAYER = 2;
+
+    private final int originX; // x-coordinate of the top-left cell of the window
+    private final int originY; // y-coordinate of the top-left cell of the window
+    private final int width; // should be > 0
+    private final int length; // should be > 0
+    private final byte[] cells; // layer bits of each cell, indexed by (y - originY) * width + (x - originX)
+
+    /**
+     * Constructor for MapRaster. Paints the Obstacles and the Routes of some Activities of the whole Map.
+     * @param map the Map to paint. Must not be {@code null}.
+     * @param activities the Activities whose Routes are painted. Must not be {@code null}.
+     */
+    MapRaster(Map map, Iterable<Activity> activities) {
+        this(map, activities, 0, 0, map.getWidth(), map.getLength());
+    }
+
+    /**
+     * Constructor for MapRaster. Paints the Obstacles and the Routes of some Activities within a window of a Map.
+     * @param map the Map to paint. Must not be {@code null}.
+     * @param activities the Activities whose Routes are painted. Must not be {@code null}.
+     * @param originX the x-coordinate of the top-left cell of the window. Must be non-negative.
+     * @param originY the y-coordinate of the top-left cell of the window. Must be non-negative.
+     * @param width the width of the window. Must be positive.
+     * @param length the length of the window. Must be positive.
+     */
+    MapRaster(Map map, Iterable<Activity> activities, int originX, int originY, int width, int length) {
+        this(originX, originY, width, length);
+
+        for(var obstacle : map.getObstacles())
+            paintObstacle(obstacle);
+
+        // the bounds of each Route rule it out without walking (or loading) it when it misses the window
+        for(var activity : activities)
+            if(activity.getBounds().overlaps(originX, originY, getMaxX(), getMaxY()))
+                paintRoute(activity.getRoute());
+
+        checkMapRaster();
+    }
+
+    /**
+     * Constructor for an empty MapRaster of a window, for the Map to paint what it finds within the window.
+     * @param originX the x-coordinate of the top-left cell of the window. Must be non-negative.
+     * @param originY the y-coordinate of the top-left cell of the window. Must be non-negative.
+     * @param width the width of the window. Must be positive.
+     * @param length the length of the window. Must be positive.
+     */
+    MapRaster(int originX, int originY, int width, int length) {
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.length = length;
+        this.cells = new byte[width * length];
+
+        checkMapRaster();
+    }
+
+    /**
+     * Paints the part of an Obstacle within the window.
+     * @param obstacle the Obstacle to paint. Must not be {@code null}.
+     */
+    void paintObstacle(Obstacle obstacle) {
+        int fromX = Math.max(originX, obstacle.topLeftCoord().x());
+        int toX = Math.min(getMaxX(), obstacle.bottomRightCoord().x());
+
+        for(int y = Math.max(originY, obstacle.topLeftCoord().y()); y <= Math.min(getMaxY(), obstacle.bottomRightCoord().y()); y++)
+            for(int x = fromX; x <= toX; x++)
+                cells[(y - originY) * width + (x - originX)] |= OBSTACLE_LAYER;
+    }
+
+    /**
+     * Paints the steps of a Route within the window.
+     * @param route the Route to paint. Must not be {@code null}.
+     */
+    void paintRoute(Route route) {
+        route.forEachStepIn(originX, originY, getMaxX(), getMaxY(), this::paintRoute);
+    }
+
+    /**
+     * Paints a cell of the Route layer.
+     * @param x the x-coordinate of the cell. Must be within the raster window.
+     * @param y the y-coordinate of the cell. Must be within the raster window.
+     */
+    void paintRoute(int x, int y) {
+        cells[(y - originY) * width + (x - originX)] |= ROUTE_LAYER;
+    }
+
+    /**
+     * @return the x-coordinate of the top-left cell of the raster.
+     */
+    public int getOriginX() {
+        return originX;
+    }
+
+    /**
+     * @return the y-coordinate of the top-left cell of the raster.
+     */
+    public int getOriginY() {
+        return originY;
+    }
+
+    /**
+     * @return the (positive) width of the raster.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return the (positive) length of the raster.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @param x the x-coordinate of the cell. Must be within the raster window.
+     * @param y the y-coordinate of the cell. Must be within the raster window.
+     * @return true if (x, y) is in any Obstacle; false otherwise.
+     */
+    public boolean isObstacle(int x, int y) {
+        return (cells[(y - originY) * width + (x - originX)] & OBSTACLE_LAYER) != 0;
+    }
+
+    /**
+     * @param x the x-coordinate of the cell. Must be within the raster window.
+     * @param y the y-coordinate of the cell. Must be within the raster window.
+     * @return true if (x, y) is in any of the painted Routes; false otherwise.
+     */
+    public boolean isRoute(int x, int y) {
+        return (cells[(y - originY) * width + (x - originX)] & ROUTE_LAYER) != 0;
+    }
+
+    /**
+     * @return the largest x-coordinate of the raster window.
+     */
+    private int getMaxX() {
+        return originX + width - 1;
+    }
+
+    /**
+     * @return the largest y-coordinate of the raster window.
+     */
+    private int getMaxY() {
+        return originY + length - 1;
+    }
+
+    /**
+     * Ensures MapRaster invariants are not violated.
+     */
+    private void checkMapRaster() {
+        Preconditions.checkState(originX >= 0, "originX cannot be negative.");
+        Preconditions.checkState(originY >= 0, "originY cannot be negative.");
+        Preconditions.checkState(width >= 1, "width cannot be negative or 0.");
+        Preconditions.checkState(length >= 1, "length cannot be negative or 0.");
+        Preconditions.checkNotNull(cells, "cells cannot be null.");
+        Preconditions.checkState(cells.length == width * length, "cells must cover the whole raster.");
+    }
+}
@@ -0,0 +1,273 @@
+package ca.umanitoba.cs.veranyan.model.map;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Connectivity of the cells of a {@link Map} that are not in any {@link Obstacle}, moving in the
+ * four directions of {@link Route#move(int, int)}. Free cells are grouped into connected components
+ * with a union-find structure, so whether one cell is reachable from another is a comparison of their
+ * component roots. Distances are read from breadth-first distance fields of recently used start cells.
+ * @implNote removing an Obstacle only joins components, so the freed cells are merged in incrementally.
+ * Adding an Obstacle may split a component, so the components are relabelled on the next query instead.
+ */
+class ReachabilityIndex {
+    private static final int FIELD_CACHE_SIZE = 4; // number of distance fields kept
+
+    private final Map map;
+    private final int width;
+    private final int length;
+
+    // union-find over the cells, indexed by y * width + x: parent of each free cell, -1 for cells in an Obstacle
+    private int[] parents; // null until the first query
+    private byte[] ranks; // upper bound of the height of the tree under each root
+    private boolean isStale; // true when an Obstacle was added since the components were labelled
+
+    // distance fields by start cell, least recently used first. Cleared whenever an Obstacle changes
+    private final LinkedHashMap<Integer, int[]> fields;
+
+    /**
+     * Constructor for ReachabilityIndex. The components are labelled on the first query.
+     * @param map the Map whose free cells are indexed. Must not be {@code null}.
+     * @param width the width of the Map. Must be positive.
+     * @param length the length of the Map. Must be positive.
+     */
+    ReachabilityIndex(Map map, int width, int length) {
+        this.map = map;
+        this.width = width;
+        this.length = length;
+        this.fields = new LinkedHashMap<>(FIELD_CACHE_SIZE * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(java.util.Map.Entry<Integer, int[]> eldest) {
+                return size() > FIELD_CACHE_SIZE;
+            }
+        };
+
+        checkReachabilityIndex();
+    }
+
+    /**
+     * Records that an Obstacle was added to the Map.
+     */
+    void obstacleAdded() {
+        isStale = true;
+        fields.clear();
+    }
+
+    /**
+     * Records that an Obstacle was removed from the Map, joining the cells it freed to their free neighbours.
+     * @param obstacle the removed Obstacle. Must not be {@code null}. Must be already removed from the Map.
+     */
+    void obstacleRemoved(Obstacle obstacle) {
+        fields.clear();
+
+        if(parents != null && !isStale) {
+            // cells still covered by another Obstacle stay out of the components
+            for(int y = obstacle.topLeftCoord().y(); y <= obstacle.bottomRightCoord().y(); y++)
+                for(int x = obstacle.topLeftCoord().x(); x <= obstacle.bottomRightCoord().x(); x++)
+                    if(!map.isInObstacle(x, y) && parents[y * width + x] == -1) {
+                        parents[y * width + x] = y * width + x;
+                        ranks[y * width + x] = 0;
+                        joinNeighbours(x, y);
+                    }
+        }
+
+        checkReachabilityIndex();
+    }
+
+    /**
+     * @param fromX the x-coordinate of the first cell. Must be within Map boundaries.
+     * @param fromY the y-coordinate of the first cell. Must be within Map boundaries.
+     * @param toX the x-coordinate of the second cell. Must be within Map boundaries.
+     * @param toY the y-coordinate of the second cell. Must be within Map boundaries.
+     * @return true if neither cell is in an Obstacle and there is an obstacle-free path between them;
+     * false otherwise.
+     */
+    boolean isReachable(int fromX, int fromY, int toX, int toY) {
+        label();
+
+        int from = fromY * width + fromX;
+        int to = toY * width + toX;
+
+        return parents[from] != -1 && parents[to] != -1 && find(from) == find(to);
+    }
+
+    /**
+     * @param fromX the x-coordinate of the first cell. Must be within Map boundaries.
+     * @param fromY the y-coordinate of the first cell. Must be within Map boundaries.
+     * @param toX the x-coordinate of the second cell. Must be within Map boundaries.
+     * @param toY the y-coordinate of the second cell. Must be within Map boundaries.
+     * @return the number of steps of a shortest obstacle-free path between the cells, or -1 if there is none.
+     */
+    int getDistance(int fromX, int fromY, int toX, int toY) {
+        int distance = -1;
+
+        if(isReachable(fromX, fromY, toX, toY)) {
+            int from = fromY * width + fromX;
+            int to = toY * width + toX;
+
+            // distances are symmetric, so a cached field of either cell answers the query
+            int[] field = fields.get(to);
+            if(field != null)
+                distance = field[from];
+            else {
+                field = fields.get(from);
+                if(field == null) {
+                    field = distanceField(from);
+                    fields.put(from, field);
+                }
+                distance = field[to];
+            }
+        }
+
+        checkReachabilityIndex();
+
+        return distance;
+    }
+
+    /**
+     * Labels the components of the free cells if they have not been labelled since the last added Obstacle.
+     */
+    private void label() {
+        if(parents == null || isStale) {
+            if(parents == null) {
+                parents = new int[width * length];
+                ranks = new byte[width * length];
+            }
+            else Arrays.fill(ranks, (byte) 0);
+
+            // every free cell is joined with its free neighbours above and to the left
+            for(int y = 0; y < length; y++)
+                for(int x = 0; x < width; x++) {
+                    int cell = y * width + x;
+
+                    if(map.isInObstacle(x, y))
+                        parents[cell] = -1;
+                    else {
+                        parents[cell] = cell;
+                        if(x > 0 && parents[cell - 1] != -1)
+                            union(cell, cell - 1);
+                        if(y > 0 && parents[cell - width] != -1)
+                            union(cell, cell - width);
+                    }
+                }
+
+            isStale = false;
+        }
+    }
+
+    /**
+     * Joins a free cell with each of its free neighbours.
+     * @param x the x-coordinate of the cell.
+     * @param y the y-coordinate of the cell.
+     */
+    private void joinNeighbours(int x, int y) {
+        int cell = y * width + x;
+
+        if(x > 0 && parents[cell - 1] != -1)
+            union(cell, cell - 1);
+        if(x < width - 1 && parents[cell + 1] != -1)
+            union(cell, cell + 1);
+        if(y > 0 && parents[cell - width] != -1)
+            union(cell, cell - width);
+        if(y < length - 1 && parents[cell + width] != -1)
+            union(cell, cell + width);
+    }
+
+    /**
+     * @param cell a free cell.
+     * @return the root of the component of the cell.
+     * @implNote uses path halving, so repeated queries on a component take nearly constant time.
+     */
+    private int find(int cell) {
+        while(parents[cell] != cell) {
+            parents[cell] = parents[parents[cell]];
+            cell = parents[cell];
+        }
+
+        return cell;
+    }
+
+    /**
+     * Joins the components of two free cells, attaching the lower tree under the higher one.
+     * @param first a free cell.
+     * @param second a free cell.
+     */
+    private void union(int first, int second) {
+        int firstRoot = find(first);
+        int secondRoot = find(second);
+
+        if(firstRoot != secondRoot) {
+            if(ranks[firstRoot] < ranks[secondRoot])
+                parents[firstRoot] = secondRoot;
+            else if(ranks[firstRoot] > ranks[secondRoot])
+                parents[secondRoot] = firstRoot;
+            else {
+                parents[secondRoot] = firstRoot;
+                ranks[firstRoot]++;
+            }
+        }
+    }
+
+    /**
+     * @param start a free cell.
+     * @return the number of steps of a shortest obstacle-free path from start to every cell, -1 for cells
+     * that cannot be reached.
+     */
+    private int[] distanceField(int start) {
+        int[] distances = new int[width * length];
+        Arrays.fill(distances, -1);
+
+        // breadth-first search; the queue holds each cell at most once
+        int[] queue = new int[width * length];
+        int head = 0;
+        int tail = 0;
+        distances[start] = 0;
+        queue[tail++] = start;
+
+        while(head < tail) {
+            int cell = queue[head++];
+            int x = cell % width;
+            int y = cell / width;
+
+            tail = visit(distances, queue, tail, cell, x > 0, cell - 1);
+            tail = visit(distances, queue, tail, cell, x < width - 1, cell + 1);
+            tail = visit(distances, queue, tail, cell, y > 0, cell - width);
+            tail = visit(distances, queue, tail, cell, y < length - 1, cell + width);
+        }
+
+        return distances;
+    }
+
+    /**
+     * Queues a neighbour of a cell in a breadth-first search if it is free and was not reached yet.
+     * @param distances the distances found so far.
+     * @param queue the queue of the search.
+     * @param tail the end of the queue.
+     * @param cell the cell being expanded.
+     * @param isWithinMap true if the neighbour is within Map boundaries.
+     * @param next the neighbour.
+     * @return the new end of the queue.
+     */
+    private int visit(int[] distances, int[] queue, int tail, int cell, boolean isWithinMap, int next) {
+        if(isWithinMap && distances[next] == -1 && parents[next] != -1) {
+            distances[next] = distances[cell] + 1;
+            queue[tail++] = next;
+        }
+
+        return tail;
+    }
+
+    /**
+     * Ensures ReachabilityIndex invariants are not violated.
+     */
+    private void checkReachabilityIndex() {
+        Preconditions.checkNotNull(map, "map cannot be null.");
+        Preconditions.checkNotNull(fields, "fields cannot be null.");
+        Preconditions.checkState(fields.size() <= FIELD_CACHE_SIZE, "fields cannot exceed the cache size.");
+        Preconditions.checkState(parents == null || parents.length == width * length,
+                "parents must cover the whole map.");
+    }
+}
@@ -0,0 +1,323 @@
+package ca.umanitoba.cs.veranyan.model.map;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A spatial index over axis-aligned rectangles of the {@link Map} grid, each with an integer id.
+ * The rectangles are packed into an R-tree using Sort-Tile-Recursive (STR) bulk loading, so
+ * point and overlap queries take O(log n + k) time for k results.
+ * @implNote the tree is packed, not balanced on insertion: rectangles added after it was packed are kept
+ * unpacked and scanned by every query. The tree is rebuilt in O(n log n) time on the first query after the
+ * unpacked rectangles outnumber {@link #MIN_UNPACKED} and one {@link #NODE_CAPACITY}-th of the packed ones,
+ * so adding a rectangle between queries costs O(log n) amortized time rather than a rebuild.
+ */
+class RectangleIndex {
+    private static final int NODE_CAPACITY = 16; // maximum number of children of a tree node
+    private static final int INITIAL_CAPACITY = 16; // initial number of rectangles the index can hold
+    private static final int MIN_UNPACKED = 256; // number of unpacked rectangles a query scans before packing them
+
+    // rectangles as [minX, minY, maxX, maxY] (inclusive): the packed ones in tree order, then the unpacked
+    // ones in the order they were added
+    private int[] bounds;
+    private int[] ids;
+    private int size;
+    private int packedSize; // number of rectangles in the tree
+
+    // tree levels, from the leaves (level 0, whose children are rectangles) up to the root.
+    // every node has its bounds (4 ints) and the range of its children in the level below
+    private int[][] levelBounds;
+    private int[][] levelFirstChild;
+    private int[][] levelChildCount;
+
+    /**
+     * Constructor for an empty RectangleIndex.
+     */
+    RectangleIndex() {
+        bounds = new int[INITIAL_CAPACITY * 4];
+        ids = new int[INITIAL_CAPACITY];
+
+        checkRectangleIndex();
+    }
+
+    /**
+     * Adds a rectangle to the index.
+     * @param minX the smallest x-coordinate of the rectangle.
+     * @param minY the smallest y-coordinate of the rectangle.
+     * @param maxX the largest x-coordinate of the rectangle. Must be greater than or equal to minX.
+     * @param maxY the largest y-coordinate of the rectangle. Must be greater than or equal to minY.
+     * @param id the id reported by queries for the rectangle.
+     */
+    void add(int minX, int minY, int maxX, int maxY, int id) {
+        if(size == ids.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+
+        bounds[size * 4] = minX;
+        bounds[size * 4 + 1] = minY;
+        bounds[size * 4 + 2] = maxX;
+        bounds[size * 4 + 3] = maxY;
+        ids[size] = id;
+        size++;
+
+        checkRectangleIndex();
+    }
+
+    /**
+     * Removes all rectangles from the index.
+     */
+    void clear() {
+        size = 0;
+        packedSize = 0;
+    }
+
+    /**
+     * @return the number of rectangles in the index.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Reports the ids of all rectangles overlapping a query rectangle.
+     * @param minX the smallest x-coordinate of the query rectangle.
+     * @param minY the smallest y-coordinate of the query rectangle.
+     * @param maxX the largest x-coordinate of the query rectangle.
+     * @param maxY the largest y-coordinate of the query rectangle.
+     * @param consumer receives the id of each overlapping rectangle. Must not be {@code null}.
+     */
+    void forEachOverlapping(int minX, int minY, int maxX, int maxY, IntConsumer consumer) {
+        build();
+
+        if(packedSize > 0) {
+            int root = levelBounds.length - 1;
+            for(int node = 0; node < levelChildCount[root].length; node++)
+                search(root, node, minX, minY, maxX, maxY, consumer, false);
+        }
+
+        for(int box = packedSize; box < size; box++)
+            if(overlaps(bounds, box, minX, minY, maxX, maxY))
+                consumer.accept(ids[box]);
+    }
+
+    /**
+     * @param minX the smallest x-coordinate of the query rectangle.
+     * @param minY the smallest y-coordinate of the query rectangle.
+     * @param maxX the largest x-coordinate of the query rectangle.
+     * @param maxY the largest y-coordinate of the query rectangle.
+     * @return true if any rectangle in the index overlaps the query rectangle; false otherwise.
+     */
+    boolean anyOverlapping(int minX, int minY, int maxX, int maxY) {
+        build();
+
+        boolean isFound = false;
+
+        if(packedSize > 0) {
+            int root = levelBounds.length - 1;
+            for(int node = 0; node < levelChildCount[root].length && !isFound; node++)
+                isFound = search(root, node, minX, minY, maxX, maxY, null, true);
+        }
+
+        for(int box = packedSize; box < size && !isFound; box++)
+            isFound = overlaps(bounds, box, minX, minY, maxX, maxY);
+
+        return isFound;
+    }
+
+    /**
+     * Searches the subtree of a node for rectangles overlapping a query rectangle.
+     * @param level the level of the node.
+     * @param node the index of the node within its level.
+     * @param minX the smallest x-coordinate of the query rectangle.
+     * @param minY the smallest y-coordinate of the query rectangle.
+     * @param maxX the largest x-coordinate of the query rectangle.
+     * @param maxY the largest y-coordinate of the query rectangle.
+     * @param consumer receives the id of each overlapping rectangle. May be {@code null} when stopAtFirst.
+     * @param stopAtFirst true to stop the search at the first overlapping rectangle.
+     * @return true if an overlapping rectangle was found; false otherwise.
+     */
+    private boolean search(int level, int node, int minX, int minY, int maxX, int maxY,
+                           IntConsumer consumer, boolean stopAtFirst) {
+        boolean isFound = false;
+
+        if(overlaps(levelBounds[level], node, minX, minY, maxX, maxY)) {
+            int first = levelFirstChild[level][node];
+            int last = first + levelChildCount[level][node];
+
+            for(int child = first; child < last && !(isFound && stopAtFirst); child++) {
+                if(level > 0)
+                    isFound |= search(level - 1, child, minX, minY, maxX, maxY, consumer, stopAtFirst);
+                else if(overlaps(bounds, child, minX, minY, maxX, maxY)) {
+                    isFound = true;
+                    if(consumer != null)
+                        consumer.accept(ids[child]);
+                }
+            }
+        }
+
+        return isFound;
+    }
+
+    /**
+     * Packs all the rectangles into the tree if there are too many unpacked ones to scan.
+     */
+    private void build() {
+        if(size - packedSize > Math.max(MIN_UNPACKED, packedSize / NODE_CAPACITY)) {
+            int levels = 1;
+            for(int nodes = ceilDiv(size, NODE_CAPACITY); nodes > 1; nodes = ceilDiv(nodes, NODE_CAPACITY))
+                levels++;
+
+            levelBounds = new int[levels][];
+            levelFirstChild = new int[levels][];
+            levelChildCount = new int[levels][];
+
+            // the leaves group the rectangles; every level above groups the nodes of the level below
+            int[] childBounds = bounds;
+            int[] childFirst = null;
+            int[] childCount = null;
+            int children = size;
+
+            for(int level = 0; level < levels; level++) {
+                int[] order = strOrder(childBounds, children);
+
+                // reordering the children (and, for rectangles, their ids) into STR order
+                childBounds = permute(childBounds, order, 4);
+                if(level == 0) {
+                    bounds = childBounds;
+                    ids = permute(ids, order, 1);
+                }
+                else {
+                    levelBounds[level - 1] = childBounds;
+                    levelFirstChild[level - 1] = permute(childFirst, order, 1);
+                    levelChildCount[level - 1] = permute(childCount, order, 1);
+                }
+
+                int nodes = ceilDiv(children, NODE_CAPACITY);
+                int[] nodeBounds = new int[nodes * 4];
+                int[] nodeFirst = new int[nodes];
+                int[] nodeCount = new int[nodes];
+
+                for(int node = 0; node < nodes; node++) {
+                    nodeFirst[node] = node * NODE_CAPACITY;
+                    nodeCount[node] = Math.min(NODE_CAPACITY, children - nodeFirst[node]);
+
+                    // the bounds of a node enclose the bounds of all its children
+                    nodeBounds[node * 4] = Integer.MAX_VALUE;
+                    nodeBounds[node * 4 + 1] = Integer.MAX_VALUE;
+                    nodeBounds[node * 4 + 2] = Integer.MIN_VALUE;
+                    nodeBounds[node * 4 + 3] = Integer.MIN_VALUE;
+                    for(int child = nodeFirst[node]; child < nodeFirst[node] + nodeCount[node]; child++) {
+                        nodeBounds[node * 4] = Math.min(nodeBounds[node * 4], childBounds[child * 4]);
+                        nodeBounds[node * 4 + 1] = Math.min(nodeBounds[node * 4 + 1], childBounds[child * 4 + 1]);
+                        nodeBounds[node * 4 + 2] = Math.max(nodeBounds[node * 4 + 2], childBounds[child * 4 + 2]);
+                        nodeBounds[node * 4 + 3] = Math.max(nodeBounds[node * 4 + 3], childBounds[child * 4 + 3]);
+                    }
+                }
+
+                childBounds = nodeBounds;
+                childFirst = nodeFirst;
+                childCount = nodeCount;
+                children = nodes;
+            }
+
+            levelBounds[levels - 1] = childBounds;
+            levelFirstChild[levels - 1] = childFirst;
+            levelChildCount[levels - 1] = childCount;
+            packedSize = size;
+        }
+    }
+
+    /**
+     * Orders boxes using Sort-Tile-Recursive: sorted by x-center into vertical slices,
+     * then each slice sorted by y-center, so that consecutive runs of NODE_CAPACITY boxes are close together.
+     * @param boxes the boxes as [minX, minY, maxX, maxY].
+     * @param count the number of boxes.
+     * @return the indices of the boxes in STR order.
+     */
+    private static int[] strOrder(int[] boxes, int count) {
+        int slices = (int) Math.ceil(Math.sqrt(ceilDiv(count, NODE_CAPACITY)));
+        int sliceSize = Math.max(1, slices) * NODE_CAPACITY;
+
+        // sorting packed (center, index) keys avoids boxing the indices
+        long[] keys = new long[count];
+        for(int i = 0; i < count; i++)
+            keys[i] = ((long) centre(boxes[i * 4], boxes[i * 4 + 2]) << 32) | i;
+        Arrays.sort(keys);
+
+        for(int from = 0; from < count; from += sliceSize) {
+            int to = Math.min(count, from + sliceSize);
+            for(int i = from; i < to; i++) {
+                int box = (int) keys[i];
+                keys[i] = ((long) centre(boxes[box * 4 + 1], boxes[box * 4 + 3]) << 32) | box;
+            }
+            Arrays.sort(keys, from, to);
+        }
+
+        int[] order = new int[count];
+        for(int i = 0; i < count; i++)
+            order[i] = (int) keys[i];
+
+        return order;
+    }
+
+    /**
+     * @param values the values, in groups of width per item.
+     * @param order the new order of the items.
+     * @param width the number of values per item.
+     * @return a new array with the items of values in the given order.
+     */
+    private static int[] permute(int[] values, int[] order, int width) {
+        int[] permuted = new int[Math.max(values.length, order.length * width)];
+
+        for(int i = 0; i < order.length; i++)
+            System.arraycopy(values, order[i] * width, permuted, i * width, width);
+
+        return permuted;
+    }
+
+    /**
+     * @param boxes the boxes as [minX, minY, maxX, maxY].
+     * @param box the index of the box.
+     * @param minX the smallest x-coordinate of the query rectangle.
+     * @param minY the smallest y-coordinate of the query rectangle.
+     * @param maxX the largest x-coordinate of the query rectangle.
+     * @param maxY the largest y-coordinate of the query rectangle.
+     * @return true if the box overlaps the query rectangle; false otherwise.
+     */
+    private static boolean overlaps(int[] boxes, int box, int minX, int minY, int maxX, int maxY) {
+        return boxes[box * 4] <= maxX && boxes[box * 4 + 2] >= minX &&
+                boxes[box * 4 + 1] <= maxY && boxes[box * 4 + 3] >= minY;
+    }
+
+    /**
+     * @param min the smallest coordinate of a box along an axis. Must be non-negative.
+     * @param max the largest coordinate of a box along an axis. Must be non-negative.
+     * @return the (non-negative) centre of the box along the axis.
+     */
+    private static int centre(int min, int max) {
+        return (int) (((long) min + max) >>> 1);
+    }
+
+    /**
+     * @param dividend a non-negative integer.
+     * @param divisor a positive integer.
+     * @return dividend / divisor, rounded up.
+     */
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    /**
+     * Ensures RectangleIndex invariants are not violated.
+     */
+    private void checkRectangleIndex() {
+        Preconditions.checkNotNull(bounds, "bounds cannot be null.");
+        Preconditions.checkNotNull(ids, "ids cannot be null.");
+        Preconditions.checkState(bounds.length == ids.length * 4, "bounds must have 4 entries per id.");
+        Preconditions.checkState(size >= 0 && size <= ids.length, "size cannot exceed the capacity.");
+        Preconditions.checkState(packedSize >= 0 && packedSize <= size, "packedSize cannot exceed the size.");
+    }
+}
@@ -3,16 +3,107 @@ package ca.umanitoba.cs.veranyan.model.map;
 import ca.umanitoba.cs.veranyan.model.Profile;
 import com.google.common.base.Preconditions;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Route is the path of an {@link ca.umanitoba.cs.veranyan.model.Activity} through the {@link Map} grid.
  * Contains information about the path taken and its distance.
  * A Route cannot overlap with any {@link Obstacle} on the Map.
+ * @implNote every move is a straight run, so the Route stores one segment per move
+ * (start, direction, length) instead of one entry per step.
+ * <p>
+ * A Route is safe for one thread recording it with {@link #move(int, int)} while any number of other threads
+ * read it, without locking. Each move publishes a new {@link State} through a volatile field, and readers work
+ * on the State they read first, so they see every step of some move and never part of one. The segments array
+ * is append-only: a move only writes past the segments of the published State, or copies the array when it is full.
+ * The cell index used by {@link #contains(int, int)} is built once by a reader and then only extended by moves.
  */
 public class Route {
-    List<Coordinate> coordinates;
+    private static final int INITIAL_CAPACITY = 8; // initial number of segments the Route can hold
+    private static final int INDEX_THRESHOLD = 16; // number of segments from which contains() uses a cell index
+
+    // layout of a segment in the segments array
+    private static final int SEGMENT_FIELDS = 4;
+    private static final int START_X = 0; // x-coordinate the segment starts from (not a step of the segment)
+    private static final int START_Y = 1; // y-coordinate the segment starts from (not a step of the segment)
+    private static final int DIRECTION = 2; // the direction of the segment, from 0 (UP) to 3 (LEFT)
+    private static final int LAST_STEP = 3; // prefix sum: the index of the last step of the segment
+
+    // change in x- and y-coordinate per step for [UP, RIGHT, DOWN, LEFT]
+    private static final int[] DIRECTION_DX = {0, 1, 0, -1};
+    private static final int[] DIRECTION_DY = {-1, 0, 1, 0};
+
+    private final int startX; // x-coordinate of the starting point (step 0)
+    private final int startY; // y-coordinate of the starting point (step 0)
+    private volatile State state; // the Route as of the last move
+    private final AtomicReference<CellIndex> cellIndex; // the visited cells, built by contains() once the Route is long
+    Map map; // the Map indexing this Route, or null if the Route's Activity is not on a Map
+    private volatile boolean isEnded; // true once the Activity of the Route ended, after which it cannot move
+
+    /**
+     * The Route as of one move, published as a whole to readers.
+     * @param segments SEGMENT_FIELDS entries per segment, ordered by step index. The LAST_STEP of the last
+     *                 segment may be out of date; it is stepsAmount - 1.
+     * @param segmentsAmount the number of segments.
+     * @param stepsAmount the number of steps, including the starting point.
+     * @param currX the x-coordinate of the last step.
+     * @param currY the y-coordinate of the last step.
+     * @param bounds the rectangle enclosing all steps.
+     */
+    private record State(int[] segments, int segmentsAmount, int stepsAmount, int currX, int currY, Bounds bounds) {
+        /**
+         * @param segment the index of the segment. Must be less than segmentsAmount.
+         * @return the index of the last step of the segment.
+         */
+        int lastStep(int segment) {
+            return (segment == segmentsAmount - 1) ? stepsAmount - 1 : segments[segment * SEGMENT_FIELDS + LAST_STEP];
+        }
+    }
+
+    /**
+     * The cells of the first steps of a Route. Built once by a reader in contains(), then only extended by move().
+     */
+    private static final class CellIndex {
+        private final CellSet cells; // the cells of the first coveredSteps steps, and maybe of later ones
+        private volatile int coveredSteps; // published after the cells of the steps are added
+
+        /**
+         * @param state the State whose steps to index. Must not be {@code null}.
+         * @param route the Route of the State. Must not be {@code null}.
+         */
+        private CellIndex(State state, Route route) {
+            cells = new CellSet();
+            route.forEachStep(state, 0, cells::add);
+            coveredSteps = state.stepsAmount();
+        }
+    }
+
+    /**
+     * Visitor of the steps of a Route, in order.
+     */
+    @FunctionalInterface
+    interface StepVisitor {
+        /**
+         * @param x the x-coordinate of the step.
+         * @param y the y-coordinate of the step.
+         */
+        void visit(int x, int y);
+    }
+
+    /**
+     * Visitor of the straight runs of a Route, each as the rectangle enclosing its steps.
+     */
+    @FunctionalInterface
+    interface RunVisitor {
+        /**
+         * @param minX the smallest x-coordinate of the run.
+         * @param minY the smallest y-coordinate of the run.
+         * @param maxX the largest x-coordinate of the run.
+         * @param maxY the largest y-coordinate of the run.
+         */
+        void visit(int minX, int minY, int maxX, int maxY);
+    }
 
     /**
      * A constructor for Route. A Route cannot overlap with any {@link Obstacle} on the Map.
@@ -20,8 +111,13 @@ public class Route {
      * @param y the non-negative y-coordinate of the starting point (x, y) of the Route.
      */
     public Route(int x, int y){
-        coordinates = new ArrayList<>();
-        coordinates.add(new Coordinate(x, y)); // adding starting point (x, y)
+        Preconditions.checkState(x >= 0, "x-coordinate cannot be negative.");
+        Preconditions.checkState(y >= 0, "y-coordinate cannot be negative.");
+
+        startX = x;
+        startY = y;
+        state = new State(new int[INITIAL_CAPACITY * SEGMENT_FIELDS], 0, 1, x, y, new Bounds(x, y, x, y));
+        cellIndex = new AtomicReference<>();
 
         checkRoute();
     }
@@ -34,89 +130,346 @@ public class Route {
     public int getStepsAmount(){
         checkRoute();
 
-        return coordinates.size();
+        return state.stepsAmount();
     }
 
     /**
      * @param index the index of the Coordinate to return.
      * @return the Coordinate at a particular index. Must not be {@code null}.
+     * @implNote the Coordinate is created on each call. The segment holding the step is found
+     * by binary search over the segments' last steps.
      */
     public Coordinate getCoordinate(int index){
         checkRoute();
 
-        return coordinates.get(index);
+        State state = this.state;
+        int[] segments = state.segments();
+        Preconditions.checkElementIndex(index, state.stepsAmount());
+
+        Coordinate coordinate;
+        if(index == 0)
+            coordinate = new Coordinate(startX, startY);
+        else {
+            // finding the first segment whose last step is at or after index
+            int low = 0;
+            int high = state.segmentsAmount() - 1;
+            while(low < high){
+                int mid = (low + high) >>> 1;
+                if(state.lastStep(mid) < index)
+                    low = mid + 1;
+                else high = mid;
+            }
+
+            int segment = low * SEGMENT_FIELDS;
+            int firstStep = (low == 0) ? 1 : segments[segment - SEGMENT_FIELDS + LAST_STEP] + 1;
+            int offset = index - firstStep + 1; // number of steps from the segment start
+            int direction = segments[segment + DIRECTION];
+
+            coordinate = new Coordinate(
+                    segments[segment + START_X] + DIRECTION_DX[direction] * offset,
+                    segments[segment + START_Y] + DIRECTION_DY[direction] * offset
+            );
+        }
+
+        return coordinate;
+    }
+
+    /**
+     * @return the smallest rectangle enclosing every step of the Route. Must not be {@code null}.
+     * @implNote kept up to date by move(), so it takes constant time.
+     */
+    public Bounds getBounds(){
+        checkRoute();
+
+        return state.bounds();
+    }
+
+    /**
+     * @return the number of segments of the Route. A segment is a straight run of steps in one direction,
+     * so replaying {@code move(getSegmentDirection(i), getSegmentSteps(i))} for every segment from the
+     * starting point rebuilds the Route.
+     */
+    public int getSegmentsAmount(){
+        checkRoute();
+
+        return state.segmentsAmount();
+    }
+
+    /**
+     * @param segment the index of the segment.
+     * @return the direction of the segment, as any of [UP = 1, RIGHT = 2, DOWN = 3, LEFT = 4].
+     */
+    public int getSegmentDirection(int segment){
+        checkRoute();
+
+        State state = this.state;
+        Preconditions.checkElementIndex(segment, state.segmentsAmount());
+
+        return state.segments()[segment * SEGMENT_FIELDS + DIRECTION] + 1;
+    }
+
+    /**
+     * @param segment the index of the segment.
+     * @return the (positive) number of steps of the segment.
+     */
+    public int getSegmentSteps(int segment){
+        checkRoute();
+
+        State state = this.state;
+        Preconditions.checkElementIndex(segment, state.segmentsAmount());
+
+        return state.lastStep(segment) - ((segment == 0) ? 0 : state.lastStep(segment - 1));
     }
 
     /**
      * Makes a move in a particular direction on the Map, adding indicated number of coordinates to the Activity route.
      * @param direction the direction to move. Must be any of and only of [UP = 1, RIGHT = 2, DOWN = 3, LEFT = 4].
      * @param steps the number of steps of the move. Must be non-negative.
-     * @implNote a step is one coordinate on the {@link Map} grid.
+     * @implNote a step is one coordinate on the {@link Map} grid. Only one thread at a time may move a Route.
+     * move() can be called only before the Route is ended with {@link #end()}.
      */
     public void move(int direction, int steps){
         checkRoute();
+        Preconditions.checkState(!isEnded, "route cannot move after its activity ended.");
 
-        var currCoordinate = coordinates.get(coordinates.size()-1); // the current (x, y) coordinate
-
-        switch(direction){
-            case 1: // move up
-                for(int i = 1; i <= steps; i++) {
-                    coordinates.add(new Coordinate(
-                            currCoordinate.x(), currCoordinate.y() - i
-                    ));
-                }
-                break;
-            case 2: // move right
-                for(int i = 1; i <= steps; i++){
-                    coordinates.add(new Coordinate(
-                            currCoordinate.x() + i, currCoordinate.y()
-                    ));
-                }
-                break;
-            case 3: // move down
-                for(int i = 1; i <= steps; i++){
-                    coordinates.add(new Coordinate(
-                            currCoordinate.x(), currCoordinate.y() + i
-                    ));
-                }
-                break;
-            case 4: // move left
-                for(int i = 1; i <= steps; i++){
-                    coordinates.add(new Coordinate(
-                            currCoordinate.x() - i, currCoordinate.y()
-                    ));
-                }
-                break;
+        if(direction >= 1 && direction <= 4 && steps > 0) {
+            State previous = state;
+            int dx = DIRECTION_DX[direction - 1];
+            int dy = DIRECTION_DY[direction - 1];
+            int currX = previous.currX();
+            int currY = previous.currY();
+            int fromIndex = previous.stepsAmount(); // the index of the first coordinate added by this move
+
+            // the move is validated before any coordinate is added
+            Preconditions.checkState(currX + dx * (long) steps >= 0, "x-coordinate cannot be negative.");
+            Preconditions.checkState(currY + dy * (long) steps >= 0, "y-coordinate cannot be negative.");
+            if(map != null)
+                map.checkMove(currX, currY, dx, dy, steps);
+
+            int[] segments = previous.segments();
+            int segmentsAmount = previous.segmentsAmount();
+            int last = (segmentsAmount - 1) * SEGMENT_FIELDS; // the last segment, if any
+
+            // continuing in the same direction extends the last segment, which only changes stepsAmount
+            if(segmentsAmount == 0 || segments[last + DIRECTION] != direction - 1) {
+                // readers of the previous State keep the array they have when it is copied
+                if((segmentsAmount + 1) * SEGMENT_FIELDS > segments.length)
+                    segments = Arrays.copyOf(segments, segments.length * 2);
+
+                // the last segment is final from now on; readers of the previous State do not read this entry
+                if(segmentsAmount > 0)
+                    segments[last + LAST_STEP] = fromIndex - 1;
+
+                int segment = segmentsAmount * SEGMENT_FIELDS;
+                segments[segment + START_X] = currX;
+                segments[segment + START_Y] = currY;
+                segments[segment + DIRECTION] = direction - 1;
+                segments[segment + LAST_STEP] = fromIndex + steps - 1;
+                segmentsAmount++;
+            }
+
+            currX += dx * steps;
+            currY += dy * steps;
+
+            // a move is a straight run, so only its last step can extend the bounds
+            Bounds bounds = previous.bounds();
+            State next = new State(segments, segmentsAmount, fromIndex + steps, currX, currY,
+                    new Bounds(Math.min(bounds.minX(), currX), Math.min(bounds.minY(), currY),
+                            Math.max(bounds.maxX(), currX), Math.max(bounds.maxY(), currY)));
+            state = next;
+
+            // extending the cell index, if it was built, with the steps it is missing
+            CellIndex index = cellIndex.get();
+            if(index != null) {
+                forEachStep(next, index.coveredSteps, index.cells::add);
+                index.coveredSteps = next.stepsAmount();
+            }
+
+            // keeping the occupancy grid of the Map in sync with the new coordinates
+            if(map != null)
+                map.routeMoved(this, fromIndex);
         }
 
         checkRoute();
     }
 
+    /**
+     * Ends the Route, as its Activity ends: the steps of an ended Activity are final, so the Route cannot move after.
+     */
+    public void end(){
+        checkRoute();
+
+        isEnded = true;
+    }
+
     /**
      * Determines whether a point is within the Route.
      * @param x the x-coordinate of the point.
      * @param y the y-coordinate of the point.
      * @return true if (x, y) is in the Route; false otherwise.
+     * @implNote compares the point against each segment, not each step. Once the Route has
+     * many segments, a hash index of its cells is built on the first call and kept up to date by move().
+     * Steps added by a move that is still extending the index are compared by segment.
      */
     public boolean contains(int x, int y){
         checkRoute();
 
-        boolean contains = false;
+        State state = this.state;
+        int[] segments = state.segments();
+        CellIndex index = cellIndex.get();
+
+        if(index == null && state.segmentsAmount() >= INDEX_THRESHOLD){
+            // the index is published once complete; if another reader published one first, that one is used
+            cellIndex.compareAndSet(null, new CellIndex(state, this));
+            index = cellIndex.get();
+        }
+
+        int coveredSteps = (index == null) ? 1 : index.coveredSteps; // the steps known to be in the index
+        boolean contains = (index != null) ? index.cells.contains(x, y) : (x == startX) && (y == startY);
+
+        // finding the first segment with steps that are not in the index
+        int first = state.segmentsAmount();
+        while(first > 0 && state.lastStep(first - 1) >= coveredSteps)
+            first--;
+
+        // going over the segments that are not in the index
+        for(int i = first; i < state.segmentsAmount() && !contains; i++){
+            int segment = i * SEGMENT_FIELDS;
+            int direction = segments[segment + DIRECTION];
+            int length = state.lastStep(i) - ((i == 0) ? 0 : state.lastStep(i - 1));
+
+            // offset of (x, y) from the segment start along the segment direction
+            int offset = (DIRECTION_DX[direction] != 0)
+                    ? (x - segments[segment + START_X]) * DIRECTION_DX[direction]
+                    : (y - segments[segment + START_Y]) * DIRECTION_DY[direction];
 
-        // going over all coordinates in the Route.
-        for(int i = 0; i < coordinates.size() && !contains; i++)
-            contains = (x == coordinates.get(i).x()) && (y == coordinates.get(i).y());
+            contains = offset >= 1 && offset <= length &&
+                    ((DIRECTION_DX[direction] != 0) ? y == segments[segment + START_Y]
+                            : x == segments[segment + START_X]);
+        }
 
         checkRoute();
 
         return contains;
     }
 
+    /**
+     * Visits the steps of the Route in order, starting from a particular step.
+     * @param fromIndex the index of the first step to visit.
+     * @param visitor the visitor to call for each step. Must not be {@code null}.
+     */
+    void forEachStep(int fromIndex, StepVisitor visitor){
+        forEachStep(state, fromIndex, visitor);
+    }
+
+    /**
+     * Visits the steps of a State of the Route in order, starting from a particular step.
+     * @param state the State to visit. Must not be {@code null}.
+     * @param fromIndex the index of the first step to visit.
+     * @param visitor the visitor to call for each step. Must not be {@code null}.
+     */
+    private void forEachStep(State state, int fromIndex, StepVisitor visitor){
+        int[] segments = state.segments();
+
+        if(fromIndex == 0)
+            visitor.visit(startX, startY);
+
+        int firstStep = 1; // index of the first step of the current segment
+        for(int i = 0; i < state.segmentsAmount(); i++){
+            int segment = i * SEGMENT_FIELDS;
+            int lastStep = state.lastStep(i);
+
+            if(lastStep >= fromIndex){
+                int dx = DIRECTION_DX[segments[segment + DIRECTION]];
+                int dy = DIRECTION_DY[segments[segment + DIRECTION]];
+
+                // skipping the steps of the segment that are before fromIndex
+                for(int offset = Math.max(1, fromIndex - firstStep + 1); offset <= lastStep - firstStep + 1; offset++)
+                    visitor.visit(segments[segment + START_X] + dx * offset, segments[segment + START_Y] + dy * offset);
+            }
+
+            firstStep = lastStep + 1;
+        }
+    }
+
+    /**
+     * Visits the starting point of the Route and then each of its segments, as the rectangles enclosing
+     * their steps. Together the rectangles cover exactly the steps of the Route.
+     * @param visitor the visitor to call for the starting point and each segment. Must not be {@code null}.
+     */
+    void forEachRun(RunVisitor visitor){
+        State state = this.state;
+        int[] segments = state.segments();
+
+        visitor.visit(startX, startY, startX, startY);
+
+        for(int i = 0; i < state.segmentsAmount(); i++){
+            int segment = i * SEGMENT_FIELDS;
+            int direction = segments[segment + DIRECTION];
+            int length = state.lastStep(i) - ((i == 0) ? 0 : state.lastStep(i - 1));
+
+            // the first and last steps of the segment
+            int firstX = segments[segment + START_X] + DIRECTION_DX[direction];
+            int firstY = segments[segment + START_Y] + DIRECTION_DY[direction];
+            int lastX = segments[segment + START_X] + DIRECTION_DX[direction] * length;
+            int lastY = segments[segment + START_Y] + DIRECTION_DY[direction] * length;
+
+            visitor.visit(Math.min(firstX, lastX), Math.min(firstY, lastY), Math.max(firstX, lastX), Math.max(firstY, lastY));
+        }
+    }
+
+    /**
+     * Visits the steps of the Route that are within a rectangular window. Each segment is clipped
+     * to the window, so steps outside of it are not walked.
+     * @param minX the smallest x-coordinate of the window.
+     * @param minY the smallest y-coordinate of the window.
+     * @param maxX the largest x-coordinate of the window.
+     * @param maxY the largest y-coordinate of the window.
+     * @param visitor the visitor to call for each step in the window. Must not be {@code null}.
+     */
+    void forEachStepIn(int minX, int minY, int maxX, int maxY, StepVisitor visitor){
+        State state = this.state;
+        int[] segments = state.segments();
+
+        if(startX >= minX && startX <= maxX && startY >= minY && startY <= maxY)
+            visitor.visit(startX, startY);
+
+        for(int i = 0; i < state.segmentsAmount(); i++){
+            int segment = i * SEGMENT_FIELDS;
+            int direction = segments[segment + DIRECTION];
+            int length = state.lastStep(i) - ((i == 0) ? 0 : state.lastStep(i - 1));
+            int dx = DIRECTION_DX[direction];
+            int dy = DIRECTION_DY[direction];
+            int x = segments[segment + START_X];
+            int y = segments[segment + START_Y];
+
+            // the segment runs along one axis; the other coordinate must be within the window
+            boolean isHorizontal = dx != 0;
+            int across = isHorizontal ? y : x;
+            int along = isHorizontal ? x : y;
+            int sign = isHorizontal ? dx : dy;
+            int low = isHorizontal ? minX : minY;
+            int high = isHorizontal ? maxX : maxY;
+
+            if(across >= (isHorizontal ? minY : minX) && across <= (isHorizontal ? maxY : maxX)){
+                // offsets of the steps of the segment that fall within [low, high] along the segment
+                int firstOffset = Math.max(1, (sign > 0) ? low - along : along - high);
+                int lastOffset = Math.min(length, (sign > 0) ? high - along : along - low);
+
+                for(int offset = firstOffset; offset <= lastOffset; offset++)
+                    visitor.visit(x + dx * offset, y + dy * offset);
+            }
+        }
+    }
+
     /**
      * Ensures Route invariants are not violated.
      */
     private void checkRoute(){
-        Preconditions.checkNotNull(coordinates, "coordinates cannot be null.");
-        Preconditions.checkState(!coordinates.isEmpty(), "coordinates must have at least one entry.");
+        State state = this.state;
+        Preconditions.checkNotNull(state.segments(), "segments cannot be null.");
+        Preconditions.checkNotNull(state.bounds(), "bounds cannot be null.");
+        Preconditions.checkState(state.segmentsAmount() >= 0, "segmentsAmount cannot be negative.");
+        Preconditions.checkState(state.stepsAmount() > state.segmentsAmount(), "stepsAmount must exceed segmentsAmount.");
     }
 }
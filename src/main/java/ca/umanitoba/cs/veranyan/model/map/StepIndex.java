@@ -0,0 +1,135 @@
+package ca.umanitoba.cs.veranyan.model.map;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+
+/**
+ * Per-day step totals of the ended {@link ca.umanitoba.cs.veranyan.model.Activity} instances on a {@link Map}.
+ * Days are kept as sorted epoch days, and their totals in a Fenwick (binary indexed) tree,
+ * so the total over any range of days takes O(log n) time.
+ */
+class StepIndex {
+    private static final int INITIAL_CAPACITY = 16; // initial number of days the index can hold
+
+    private long[] days; // sorted epoch days that have (or had) steps recorded
+    private long[] tree; // Fenwick tree over the day totals, 1-based: tree[i] covers days (i - lowbit(i), i]
+    private int size; // number of days in use
+
+    /**
+     * Constructor for an empty StepIndex.
+     */
+    StepIndex() {
+        days = new long[INITIAL_CAPACITY];
+        tree = new long[INITIAL_CAPACITY + 1];
+
+        checkStepIndex();
+    }
+
+    /**
+     * Adds steps to the total of a day.
+     * @param epochDay the day, as counted by {@link java.time.LocalDate#toEpochDay()}.
+     * @param steps the number of steps to add. May be negative to remove steps.
+     */
+    void add(long epochDay, long steps) {
+        int position = Arrays.binarySearch(days, 0, size, epochDay);
+
+        if(position < 0) {
+            position = -(position + 1);
+
+            if(size == days.length) {
+                days = Arrays.copyOf(days, days.length * 2);
+                tree = Arrays.copyOf(tree, days.length + 1);
+            }
+
+            if(position == size)
+                append(epochDay);
+            else insert(position, epochDay);
+        }
+
+        // Fenwick update: adding steps to every node covering the day
+        for(int i = position + 1; i <= size; i += i & -i)
+            tree[i] += steps;
+
+        checkStepIndex();
+    }
+
+    /**
+     * @param fromEpochDay the first day of the range (inclusive).
+     * @param toEpochDay the last day of the range (exclusive).
+     * @return the total number of steps recorded for days in [fromEpochDay, toEpochDay).
+     */
+    long sum(long fromEpochDay, long toEpochDay) {
+        return (fromEpochDay >= toEpochDay) ? 0 : prefix(lowerBound(toEpochDay)) - prefix(lowerBound(fromEpochDay));
+    }
+
+    /**
+     * Appends a day after all the recorded days with a total of 0, without rebuilding the tree.
+     * @param epochDay the day to append. Must be after every recorded day.
+     */
+    private void append(long epochDay) {
+        size++;
+        days[size - 1] = epochDay;
+
+        // the new node covers days (size - lowbit(size), size], all of which are already recorded
+        tree[size] = prefix(size - 1) - prefix(size - (size & -size));
+    }
+
+    /**
+     * Inserts a day between the recorded days with a total of 0, rebuilding the tree in O(n) time.
+     * @param position the position of the day in the sorted days.
+     * @param epochDay the day to insert.
+     */
+    private void insert(int position, long epochDay) {
+        // recovering the per-day totals from the tree, shifting them to make room for the new day
+        long[] totals = new long[size + 1];
+        for(int i = 0; i < size; i++)
+            totals[(i < position) ? i : i + 1] = prefix(i + 1) - prefix(i);
+
+        System.arraycopy(days, position, days, position + 1, size - position);
+        days[position] = epochDay;
+        size++;
+
+        // linear-time Fenwick construction
+        Arrays.fill(tree, 0);
+        for(int i = 1; i <= size; i++){
+            tree[i] += totals[i - 1];
+            int parent = i + (i & -i);
+            if(parent <= size)
+                tree[parent] += tree[i];
+        }
+    }
+
+    /**
+     * @param count the number of leading days to sum.
+     * @return the total number of steps of the first count days.
+     */
+    private long prefix(int count) {
+        long total = 0;
+
+        for(int i = count; i > 0; i -= i & -i)
+            total += tree[i];
+
+        return total;
+    }
+
+    /**
+     * @param epochDay the day to search for.
+     * @return the number of recorded days before epochDay.
+     */
+    private int lowerBound(long epochDay) {
+        int position = Arrays.binarySearch(days, 0, size, epochDay);
+
+        return (position < 0) ? -(position + 1) : position;
+    }
+
+    /**
+     * Ensures StepIndex invariants are not violated.
+     */
+    private void checkStepIndex() {
+        Preconditions.checkNotNull(days, "days cannot be null.");
+        Preconditions.checkNotNull(tree, "tree cannot be null.");
+        Preconditions.checkState(tree.length == days.length + 1, "tree must have one node per day.");
+        Preconditions.checkState(size >= 0 && size <= days.length, "size cannot exceed the capacity.");
+    }
+}
@@ -0,0 +1,451 @@
+package ca.umanitoba.cs.veranyan.output;
+
+import ca.umanitoba.cs.veranyan.model.Activity;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.map.Map;
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+
+/**
+ * The exporter class for the {@link Activity Activities} of a {@link Map}, for other programs to read.
+ * Each Activity is written as one CSV row or JSON line with its start, end, number of steps, distance
+ * (in meters), average speed (in meters per second, with 3 decimals), Gear type and Gear name, and optionally
+ * the coordinates of its Route. The end and average speed are empty (CSV) or {@code null} (JSON) for an
+ * Activity that did not end.
+ * <p>
+ * In CSV, the Route is one field of {@code x y} pairs separated by {@code ;}. In JSON, it is an array of
+ * {@code [x, y]} arrays. Date-times are written in ISO-8601 without an offset, as they are recorded.
+ * @implNote values are written as UTF-8 bytes straight into a fixed-size buffer, which is written to the channel
+ * whenever it fills up, so memory use does not depend on the number of Activities. Only the text of each Gear is
+ * encoded once and kept for the export. Routes that are not loaded are read one at a time without being kept
+ * (see {@link Activity#readRoute()}).
+ */
+public class ActivityExporter {
+    private static final int METERS_PER_STEP = 10;
+    private static final int BUFFER_SIZE = 1 << 16; // size of the buffer, in bytes
+    private static final int MAX_VALUE_SIZE = 64; // largest number of bytes of a single number or date-time
+    private static final int SPEED_SCALE = 1000; // average speeds are written with 3 decimals
+
+    // change in x- and y-coordinate per step for [UP, RIGHT, DOWN, LEFT], as in Route
+    private static final int[] DIRECTION_DX = {0, 1, 0, -1};
+    private static final int[] DIRECTION_DY = {-1, 0, 1, 0};
+
+    private static final byte[] CSV_HEADER =
+            "start,end,steps,distance,avg_speed,gear_type,gear_name".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JSON_NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map map;
+    private final ExportFormat format;
+    private final boolean includeRoutes; // true if the coordinates of each Route are written
+
+    /**
+     * Constructor for ActivityExporter.
+     * @param map the Map whose Activities are to be exported. Must not be {@code null}.
+     * @param format the format to write the Activities in. Must not be {@code null}.
+     * @param includeRoutes true if the coordinates of each Route are to be written; false otherwise.
+     */
+    public ActivityExporter(Map map, ExportFormat format, boolean includeRoutes) {
+        this.map = map;
+        this.format = format;
+        this.includeRoutes = includeRoutes;
+
+        checkActivityExporter();
+    }
+
+    /**
+     * Writes every Activity of the Map, in start order.
+     * @param channel the channel to write to. Must not be {@code null}. Is not closed.
+     * @return the number of Activities written.
+     * @throws IOException if the channel cannot be written to.
+     */
+    public int export(WritableByteChannel channel) throws IOException {
+        checkActivityExporter();
+
+        int written = export(channel, map.getActivities());
+
+        checkActivityExporter();
+
+        return written;
+    }
+
+    /**
+     * Writes the Activities of the Map that started within a time range, in start order.
+     * @param channel the channel to write to. Must not be {@code null}. Is not closed.
+     * @param from the start of the range (inclusive). Must not be {@code null}.
+     * @param to the end of the range (exclusive). Must not be {@code null}.
+     * @return the number of Activities written.
+     * @throws IOException if the channel cannot be written to.
+     */
+    public int export(WritableByteChannel channel, LocalDateTime from, LocalDateTime to) throws IOException {
+        checkActivityExporter();
+
+        int written = export(channel, map.activitiesBetween(from, to));
+
+        checkActivityExporter();
+
+        return written;
+    }
+
+    /**
+     * @param channel the channel to write to. Must not be {@code null}.
+     * @param activities the Activities to write. Must not be {@code null}.
+     * @return the number of Activities written.
+     */
+    private int export(WritableByteChannel channel, Iterable<Activity> activities) throws IOException {
+        Preconditions.checkNotNull(channel, "channel cannot be null.");
+
+        Writer writer = new Writer(channel);
+        if(format == ExportFormat.CSV) {
+            writer.writeBytes(CSV_HEADER);
+            writer.writeAscii(includeRoutes ? ",route\n" : "\n");
+        }
+
+        int written = 0;
+        for(Activity activity : activities) {
+            if(format == ExportFormat.CSV)
+                writeCsv(writer, activity);
+            else writeJson(writer, activity);
+            written++;
+        }
+        writer.flush();
+
+        return written;
+    }
+
+    /**
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param activity the Activity to write as a CSV row. Must not be {@code null}.
+     */
+    private void writeCsv(Writer writer, Activity activity) throws IOException {
+        // end is read once: an Activity being recorded may end while it is written
+        LocalDateTime end = activity.getEnd();
+        int stepsAmount = activity.getStepsAmount();
+
+        writer.writeDateTime(activity.getStart());
+        writer.writeByte(',');
+        if(end != null)
+            writer.writeDateTime(end);
+        writer.writeByte(',');
+        writer.writeLong(stepsAmount);
+        writer.writeByte(',');
+        writer.writeLong((long) stepsAmount * METERS_PER_STEP);
+        writer.writeByte(',');
+        if(end != null)
+            writer.writeSpeed(activity.getAvgSpeed());
+        writer.writeByte(',');
+        writer.writeBytes(writer.gearText(activity.getGear()));
+
+        if(includeRoutes) {
+            writer.writeByte(',');
+            writeRoute(writer, activity.readRoute(), ' ', ';', null, null);
+        }
+        writer.writeByte('\n');
+    }
+
+    /**
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param activity the Activity to write as a JSON line. Must not be {@code null}.
+     */
+    private void writeJson(Writer writer, Activity activity) throws IOException {
+        // end is read once: an Activity being recorded may end while it is written
+        LocalDateTime end = activity.getEnd();
+        int stepsAmount = activity.getStepsAmount();
+
+        writer.writeAscii("{\"start\":\"");
+        writer.writeDateTime(activity.getStart());
+        writer.writeAscii("\",\"end\":");
+        if(end != null) {
+            writer.writeByte('"');
+            writer.writeDateTime(end);
+            writer.writeByte('"');
+        }
+        else writer.writeBytes(JSON_NULL);
+        writer.writeAscii(",\"steps\":");
+        writer.writeLong(stepsAmount);
+        writer.writeAscii(",\"distance\":");
+        writer.writeLong((long) stepsAmount * METERS_PER_STEP);
+        writer.writeAscii(",\"avg_speed\":");
+        if(end != null)
+            writer.writeSpeed(activity.getAvgSpeed());
+        else writer.writeBytes(JSON_NULL);
+        writer.writeByte(',');
+        writer.writeBytes(writer.gearText(activity.getGear()));
+
+        if(includeRoutes) {
+            writer.writeAscii(",\"route\":[");
+            writeRoute(writer, activity.readRoute(), ',', ',', "[", "]");
+            writer.writeByte(']');
+        }
+        writer.writeAscii("}\n");
+    }
+
+    /**
+     * Writes the coordinates of every step of a Route, walking its segments.
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param route the Route to write. Must not be {@code null}.
+     * @param pairSeparator the character between the x- and y-coordinate of a step.
+     * @param stepSeparator the character between two steps.
+     * @param open the text before each step. May be {@code null} if there is none.
+     * @param close the text after each step. May be {@code null} if there is none.
+     */
+    private static void writeRoute(Writer writer, Route route, char pairSeparator, char stepSeparator,
+                                   String open, String close) throws IOException {
+        var start = route.getCoordinate(0);
+        int x = start.x();
+        int y = start.y();
+        writer.writeStep(x, y, pairSeparator, open, close);
+
+        int segmentsAmount = route.getSegmentsAmount();
+        for(int i = 0; i < segmentsAmount; i++) {
+            int direction = route.getSegmentDirection(i) - 1;
+            int steps = route.getSegmentSteps(i);
+            for(int j = 0; j < steps; j++) {
+                x += DIRECTION_DX[direction];
+                y += DIRECTION_DY[direction];
+                writer.writeByte(stepSeparator);
+                writer.writeStep(x, y, pairSeparator, open, close);
+            }
+        }
+    }
+
+    /**
+     * Writes text and numbers as UTF-8 to a channel, through a buffer, for the length of one export.
+     */
+    private final class Writer {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer;
+        private final HashMap<Gear, byte[]> gearTexts; // the encoded Gear fields of each Gear written so far
+
+        /**
+         * @param channel the channel to write to. Must not be {@code null}.
+         */
+        private Writer(WritableByteChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            this.gearTexts = new HashMap<>();
+        }
+
+        /**
+         * @param value the ASCII character to write.
+         */
+        private void writeByte(int value) throws IOException {
+            ensureRemaining(1);
+            buffer.put((byte) value);
+        }
+
+        /**
+         * @param value the text to write. Must only hold ASCII characters. Must not be {@code null}.
+         */
+        private void writeAscii(String value) throws IOException {
+            ensureRemaining(value.length());
+            for(int i = 0; i < value.length(); i++)
+                buffer.put((byte) value.charAt(i));
+        }
+
+        /**
+         * @param bytes the bytes to write. Must not be {@code null}.
+         */
+        private void writeBytes(byte[] bytes) throws IOException {
+            // long arrays are copied through the buffer in chunks
+            for(int offset = 0; offset < bytes.length; ) {
+                if(!buffer.hasRemaining())
+                    drain();
+
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        /**
+         * @param value the integer to write, in decimal digits.
+         */
+        private void writeLong(long value) throws IOException {
+            ensureRemaining(MAX_VALUE_SIZE);
+
+            if(value < 0) {
+                buffer.put((byte) '-');
+                value = -value; // Long.MIN_VALUE is not a count of steps or meters
+            }
+
+            // digits are put from the highest down
+            long divisor = 1;
+            while(divisor <= value / 10)
+                divisor *= 10;
+            for(; divisor > 0; divisor /= 10)
+                buffer.put((byte) ('0' + value / divisor % 10));
+        }
+
+        /**
+         * @param value the non-negative integer to write, in exactly digits decimal digits.
+         * @param digits the number of digits, padded with leading zeros.
+         */
+        private void writePadded(int value, int digits) {
+            for(int divisor = pow10(digits - 1); divisor > 0; divisor /= 10)
+                buffer.put((byte) ('0' + value / divisor % 10));
+        }
+
+        /**
+         * @param speed the average speed to write, with 3 decimals. Written as empty or null if not finite,
+         *              such as for an Activity that ended when it started.
+         */
+        private void writeSpeed(double speed) throws IOException {
+            if(Double.isFinite(speed)) {
+                long scaled = Math.round(speed * SPEED_SCALE);
+                writeLong(scaled / SPEED_SCALE);
+                buffer.put((byte) '.');
+                writePadded((int) (scaled % SPEED_SCALE), 3);
+            }
+            else if(format == ExportFormat.JSON_LINES)
+                writeBytes(JSON_NULL);
+        }
+
+        /**
+         * @param value the date-time to write, in ISO-8601 without an offset: seconds are always written, and
+         *              fractions of a second with 3, 6 or 9 digits when there are any. Must not be {@code null}.
+         *              Its year must be from 0 to 9999.
+         */
+        private void writeDateTime(LocalDateTime value) throws IOException {
+            ensureRemaining(MAX_VALUE_SIZE);
+
+            writePadded(value.getYear(), 4);
+            buffer.put((byte) '-');
+            writePadded(value.getMonthValue(), 2);
+            buffer.put((byte) '-');
+            writePadded(value.getDayOfMonth(), 2);
+            buffer.put((byte) 'T');
+            writePadded(value.getHour(), 2);
+            buffer.put((byte) ':');
+            writePadded(value.getMinute(), 2);
+            buffer.put((byte) ':');
+            writePadded(value.getSecond(), 2);
+
+            int nano = value.getNano();
+            if(nano != 0) {
+                buffer.put((byte) '.');
+                if(nano % 1_000_000 == 0)
+                    writePadded(nano / 1_000_000, 3);
+                else if(nano % 1_000 == 0)
+                    writePadded(nano / 1_000, 6);
+                else writePadded(nano, 9);
+            }
+        }
+
+        /**
+         * @param x the x-coordinate of the step.
+         * @param y the y-coordinate of the step.
+         * @param separator the character between the coordinates.
+         * @param open the text before the step. May be {@code null} if there is none.
+         * @param close the text after the step. May be {@code null} if there is none.
+         */
+        private void writeStep(int x, int y, char separator, String open, String close) throws IOException {
+            if(open != null)
+                writeAscii(open);
+            writeLong(x);
+            writeByte(separator);
+            writeLong(y);
+            if(close != null)
+                writeAscii(close);
+        }
+
+        /**
+         * @param gear the Gear to write. Must not be {@code null}.
+         * @return the Gear type and name fields, encoded and escaped for the format. Must not be {@code null}.
+         */
+        private byte[] gearText(Gear gear) {
+            byte[] text = gearTexts.get(gear);
+            if(text == null) {
+                String type = gear.type().name();
+                text = ((format == ExportFormat.CSV) ? type + "," + csvField(gear.name()) :
+                        "\"gear_type\":\"" + type + "\",\"gear_name\":" + jsonString(gear.name()))
+                        .getBytes(StandardCharsets.UTF_8);
+                gearTexts.put(gear, text);
+            }
+
+            return text;
+        }
+
+        /**
+         * Writes the contents of the buffer to the channel.
+         */
+        private void flush() throws IOException {
+            drain();
+        }
+
+        /**
+         * Makes room in the buffer for a number of bytes, which must not be more than its size.
+         * @param size the number of bytes.
+         */
+        private void ensureRemaining(int size) throws IOException {
+            if(buffer.remaining() < size)
+                drain();
+        }
+
+        /**
+         * Writes the contents of the buffer to the channel and empties it.
+         */
+        private void drain() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @param exponent the non-negative exponent.
+     * @return 10 to the power of exponent.
+     */
+    private static int pow10(int exponent) {
+        int power = 1;
+        for(int i = 0; i < exponent; i++)
+            power *= 10;
+
+        return power;
+    }
+
+    /**
+     * @param value the text of a field. Must not be {@code null}.
+     * @return the field as CSV, quoted if it holds a comma, a quote or a line break. Must not be {@code null}.
+     */
+    private static String csvField(String value) {
+        boolean mustQuote = value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+
+        return mustQuote ? '"' + value.replace("\"", "\"\"") + '"' : value;
+    }
+
+    /**
+     * @param value the text of a string. Must not be {@code null}.
+     * @return the string as a quoted JSON string, with quotes, backslashes and control characters escaped.
+     * Must not be {@code null}.
+     */
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '"' || c == '\\')
+                json.append('\\').append(c);
+            else if(c < 0x20)
+                json.append(String.format("\\u%04x", (int) c));
+            else json.append(c);
+        }
+
+        return json.append('"').toString();
+    }
+
+    /**
+     * Ensures ActivityExporter invariants are not violated.
+     */
+    private void checkActivityExporter(){
+        Preconditions.checkNotNull(map, "map cannot be null.");
+        Preconditions.checkNotNull(format, "format cannot be null.");
+    }
+}
@@ -0,0 +1,9 @@
+package ca.umanitoba.cs.veranyan.output;
+
+/**
+ * Formats an {@link ActivityExporter} can write Activities in.
+ */
+public enum ExportFormat {
+    CSV, // comma-separated values, with a header row
+    JSON_LINES // one JSON object per line
+}
@@ -1,18 +1,28 @@
 package ca.umanitoba.cs.veranyan.output;
 
 import ca.umanitoba.cs.veranyan.model.map.Map;
+import ca.umanitoba.cs.veranyan.model.map.MapRaster;
 import com.google.common.base.Preconditions;
 
-import java.time.DayOfWeek;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
-import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
 
 /**
  * The printer class for the {@link Map}
  */
 public class MapPrinter {
     private static final int METERS_PER_STEP = 10;
+    private static final int BUFFER_SIZE = 1 << 16; // size of the output buffer, in characters
+
+    // kinds of grid cells, in increasing order of precedence when a cell covers several coordinates
+    private static final int EMPTY_KIND = 0;
+    private static final int ROUTE_KIND = 1;
+    private static final int OBSTACLE_KIND = 2;
 
     // symbols to display on grid
     public static final String OBSTACLE = "*";
@@ -20,13 +30,37 @@ public class MapPrinter {
     public static final String ROUTE = ">";
 
     private final Map map;
+    private final PrintStream out;
+
+    /**
+     * Decides what a grid cell shows.
+     */
+    @FunctionalInterface
+    private interface CellKind {
+        /**
+         * @param x the x-coordinate of the top-left Map coordinate covered by the cell.
+         * @param y the y-coordinate of the top-left Map coordinate covered by the cell.
+         * @return the kind of the cell: EMPTY_KIND, ROUTE_KIND or OBSTACLE_KIND.
+         */
+        int kindAt(int x, int y);
+    }
 
     /**
      * Constructor for MapPrinter.
-     * @param map the Map singleton to be printed. Must not be {@code null}.
+     * @param map the Map to be printed. Must not be {@code null}.
      */
     public MapPrinter(Map map){
+        this(map, System.out);
+    }
+
+    /**
+     * Constructor for MapPrinter printing to a particular stream.
+     * @param map the Map to be printed. Must not be {@code null}.
+     * @param out the stream to print to. Must not be {@code null}.
+     */
+    public MapPrinter(Map map, PrintStream out){
         this.map = map;
+        this.out = out;
 
         checkMapPrinter();
     }
@@ -38,50 +72,9 @@ public class MapPrinter {
     public void print(boolean summarise){
         checkMapPrinter();
 
-        System.out.println("Legend:");
-        System.out.printf("Grid layout: %dx%d.\n", map.getWidth(), map.getLength());
-        System.out.println("Obstacle coordinate: " + OBSTACLE);
-        System.out.println("Route coordinate: " + ROUTE);
-        System.out.println("Empty coordinate: " + EMPTY);
-
-        /*
-        calculating largest number of digits for both x- and y-coordinates
-        in order to use for indenting and proper output formatting.
-         */
-
-        int maxXLen;
-        if(map.getWidth() > 9)
-            maxXLen = (int) Math.log10(map.getWidth() - 1) + 1; // the number of digits in the largest x-coordinate
-        else{ // map width 1 crash prevention
-            maxXLen = 1;
-        }
-
-        int maxYLen;
-        if(map.getLength() > 9)
-            maxYLen = (int) Math.log10(map.getLength() - 1) + 1; // the number of digits in the largest y-coordinate
-        else { // map length 1 crash prevention
-            maxYLen = 1;
-        }
-
-        // printing x-coordinates
-        System.out.printf("%" + (maxYLen+1) + "s", ""); // indent for y-coordinate
-        for(int i = 0; i < map.getWidth(); i++)
-            System.out.printf(" %" + maxXLen + "d", i);
-        System.out.println();
-
-        for (int y = 0; y < map.getLength(); y++){ // y-coordinates
-            System.out.printf("%" + maxYLen + "d|", y); // printing the y-coordinate
-
-            for (int x = 0; x < map.getWidth(); x++){ // x-coordinates
-                if(map.isInObstacle(x, y)) // searches in all obstacles
-                    System.out.printf(" %" + maxXLen + "s", OBSTACLE);
-                else if(map.isInRoute(x, y)) // searches in all activities
-                    System.out.printf(" %" + maxXLen + "s", ROUTE);
-                else System.out.printf(" %" + maxXLen + "s", EMPTY);
-            }
-            System.out.println();
-        }
-        System.out.println();
+        PrintWriter writer = newWriter();
+        printLegend(writer);
+        printGrid(writer, 0, 0, map.getWidth(), map.getLength(), 1, rasterKinds(map.getRaster()));
 
         if(summarise) {
             // printing Activity distance summary for week and month
@@ -89,10 +82,14 @@ public class MapPrinter {
             int numStepsWeek = map.getTotalNumSteps(today, ChronoUnit.WEEKS);
             int numStepsMonth = map.getTotalNumSteps(today, ChronoUnit.MONTHS);
 
-            System.out.println("This week, you have cycled for " + (numStepsWeek * METERS_PER_STEP) + " meters.");
-            System.out.println("This month, you have cycled for " + (numStepsMonth * METERS_PER_STEP) + " meters.");
+            writer.write("This week, you have cycled for " + (numStepsWeek * METERS_PER_STEP) + " meters.");
+            writer.write(System.lineSeparator());
+            writer.write("This month, you have cycled for " + (numStepsMonth * METERS_PER_STEP) + " meters.");
+            writer.write(System.lineSeparator());
         }
 
+        writer.flush();
+
         checkMapPrinter();
     }
 
@@ -101,52 +98,186 @@ public class MapPrinter {
      * @param index the index of the Activity to be printed on the grid.
      */
     public void print(int index){
-        System.out.println("Legend:");
-        System.out.printf("Grid layout: %dx%d.\n", map.getWidth(), map.getLength());
-        System.out.println("Obstacle coordinate: " + OBSTACLE);
-        System.out.println("Route coordinate: " + ROUTE);
-        System.out.println("Empty coordinate: " + EMPTY);
+        checkMapPrinter();
+
+        PrintWriter writer = newWriter();
+        printLegend(writer);
+        printGrid(writer, 0, 0, map.getWidth(), map.getLength(), 1, rasterKinds(map.getRaster(index)));
+        writer.flush();
+
+        checkMapPrinter();
+    }
+
+    /**
+     * Prints a window of the Map and all its Activities. This method prints to standard output (`System.out`).
+     * Each printed cell covers scale x scale Map coordinates, and shows an Obstacle if any of them is in an
+     * Obstacle, or a Route if any of them is in a Route.
+     * @param x the x-coordinate of the top-left corner of the window. Must be within Map boundaries.
+     * @param y the y-coordinate of the top-left corner of the window. Must be within Map boundaries.
+     * @param columns the number of cells to print across. Must be positive. Cells past the Map are not printed.
+     * @param rows the number of cells to print down. Must be positive. Cells past the Map are not printed.
+     * @param scale the number of Map coordinates covered by a cell along each axis (zoom level). Must be positive.
+     * @implNote cells are read from the Map's raster tiles, so only the tiles within the window are painted.
+     */
+    public void printViewport(int x, int y, int columns, int rows, int scale){
+        checkMapPrinter();
+
+        Preconditions.checkState(x >= 0 && x < map.getWidth(), "x must be within map boundaries.");
+        Preconditions.checkState(y >= 0 && y < map.getLength(), "y must be within map boundaries.");
+        Preconditions.checkState(columns >= 1, "columns must be positive.");
+        Preconditions.checkState(rows >= 1, "rows must be positive.");
+        Preconditions.checkState(scale >= 1, "scale must be positive.");
+
+        // clipping the window to the Map
+        columns = Math.min(columns, (map.getWidth() - x + scale - 1) / scale);
+        rows = Math.min(rows, (map.getLength() - y + scale - 1) / scale);
+
+        int width = map.getWidth();
+        int length = map.getLength();
+        int firstTileX = x / Map.TILE_SIZE;
+        int firstTileY = y / Map.TILE_SIZE;
+        int lastX = Math.min(width - 1, x + columns * scale - 1); // the largest x-coordinate of the window
+        int lastY = Math.min(length - 1, y + rows * scale - 1); // the largest y-coordinate of the window
+
+        // the tiles within the window, fetched from the Map the first time a cell needs them
+        MapRaster[][] visibleTiles = new MapRaster[lastY / Map.TILE_SIZE - firstTileY + 1]
+                [lastX / Map.TILE_SIZE - firstTileX + 1];
+
+        CellKind blockKinds = (blockX, blockY) -> {
+            int kind = EMPTY_KIND;
+
+            // the cell shows the highest-precedence kind among the coordinates it covers
+            for(int cellY = blockY; cellY < Math.min(blockY + scale, length) && kind != OBSTACLE_KIND; cellY++)
+                for(int cellX = blockX; cellX < Math.min(blockX + scale, width) && kind != OBSTACLE_KIND; cellX++){
+                    int tileX = cellX / Map.TILE_SIZE;
+                    int tileY = cellY / Map.TILE_SIZE;
+                    MapRaster tile = visibleTiles[tileY - firstTileY][tileX - firstTileX];
+                    if(tile == null){
+                        tile = map.getTile(tileX, tileY);
+                        visibleTiles[tileY - firstTileY][tileX - firstTileX] = tile;
+                    }
+
+                    if(tile.isObstacle(cellX, cellY))
+                        kind = OBSTACLE_KIND;
+                    else if(tile.isRoute(cellX, cellY))
+                        kind = ROUTE_KIND;
+                }
+
+            return kind;
+        };
+
+        PrintWriter writer = newWriter();
+        printLegend(writer);
+        writer.write("Viewport: " + columns + "x" + rows + " cells from (" + x + ", " + y + ") to (" +
+                lastX + ", " + lastY + "), each covering " + scale + "x" + scale + " coordinates." +
+                System.lineSeparator());
+        printGrid(writer, x, y, columns, rows, scale, blockKinds);
+        writer.flush();
+
+        checkMapPrinter();
+    }
+
+    /**
+     * Writes the legend of the Map.
+     * @param writer the writer to write to. Must not be {@code null}.
+     */
+    private void printLegend(PrintWriter writer){
+        String lineSeparator = System.lineSeparator();
+
+        writer.write("Legend:" + lineSeparator);
+        writer.write("Grid layout: " + map.getWidth() + "x" + map.getLength() + ".\n");
+        writer.write("Obstacle coordinate: " + OBSTACLE + lineSeparator);
+        writer.write("Route coordinate: " + ROUTE + lineSeparator);
+        writer.write("Empty coordinate: " + EMPTY + lineSeparator);
+    }
+
+    /**
+     * @param raster the raster of the Map with the Routes to draw. Must not be {@code null}.
+     * @return the kinds of the cells of a grid with one cell per Map coordinate.
+     */
+    private static CellKind rasterKinds(MapRaster raster){
+        return (x, y) -> raster.isObstacle(x, y) ? OBSTACLE_KIND : (raster.isRoute(x, y) ? ROUTE_KIND : EMPTY_KIND);
+    }
+
+    /**
+     * Writes the grid of the Map, labelled with the coordinates of its cells.
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param firstX the x-coordinate of the first column of cells.
+     * @param firstY the y-coordinate of the first row of cells.
+     * @param columns the number of columns of cells. Must be positive.
+     * @param rows the number of rows of cells. Must be positive.
+     * @param scale the number of Map coordinates covered by a cell along each axis. Must be positive.
+     * @param kinds decides what each cell shows. Must not be {@code null}.
+     */
+    private void printGrid(PrintWriter writer, int firstX, int firstY, int columns, int rows, int scale, CellKind kinds){
+        String lineSeparator = System.lineSeparator();
 
         /*
         calculating largest number of digits for both x- and y-coordinates
         in order to use for indenting and proper output formatting.
          */
 
-        int maxXLen;
-        if(map.getWidth() > 9)
-            maxXLen = (int) Math.log10(map.getWidth() - 1) + 1; // the number of digits in the largest x-coordinate
-        else{ // map width 1 crash prevention
-            maxXLen = 1;
-        }
-
-        int maxYLen;
-        if(map.getLength() > 9)
-            maxYLen = (int) Math.log10(map.getLength() - 1) + 1; // the number of digits in the largest y-coordinate
-        else { // map length 1 crash prevention
-            maxYLen = 1;
-        }
+        int maxXLen = Integer.toString(firstX + (columns - 1) * scale).length(); // digits in the largest x-coordinate
+        int maxYLen = Integer.toString(firstY + (rows - 1) * scale).length(); // digits in the largest y-coordinate
 
         // printing x-coordinates
-        System.out.printf("%" + (maxYLen+1) + "s", ""); // indent for y-coordinate
-        for(int i = 0; i < map.getWidth(); i++)
-            System.out.printf(" %" + maxXLen + "d", i);
-        System.out.println();
-
-        for (int j = 0; j < map.getLength(); j++){ // y-coordinates
-            System.out.printf("%" + maxYLen + "d|", j); // printing the y-coordinate
-
-            for (int i = 0; i < map.getWidth(); i++){ // x-coordinates
-                if(map.isInObstacle(i, j)) // searches in all obstacles
-                    System.out.printf(" %" + maxXLen + "s", OBSTACLE);
-                else if(map.isInRoute(index, i, j)) // searches in Activity at index
-                    System.out.printf(" %" + maxXLen + "s", ROUTE);
-                else System.out.printf(" %" + maxXLen + "s", EMPTY);
+        StringBuilder header = new StringBuilder();
+        pad(header, "", maxYLen + 1); // indent for y-coordinate
+        for(int i = 0; i < columns; i++)
+            pad(header.append(' '), Integer.toString(firstX + i * scale), maxXLen);
+        writer.write(header.append(lineSeparator).toString());
+
+        // each cell is a space followed by its padded symbol, precomputed once for the whole grid
+        char[] obstacleCell = pad(new StringBuilder(" "), OBSTACLE, maxXLen).toString().toCharArray();
+        char[] routeCell = pad(new StringBuilder(" "), ROUTE, maxXLen).toString().toCharArray();
+        char[] emptyCell = pad(new StringBuilder(" "), EMPTY, maxXLen).toString().toCharArray();
+
+        char[][] kindCells = {emptyCell, routeCell, obstacleCell}; // padded cell of each kind
+
+        // every row is composed in the same buffer: the padded y-coordinate, '|', then the cells
+        char[] row = new char[maxYLen + 1 + columns * (maxXLen + 1)];
+
+        for (int j = 0; j < rows; j++){ // y-coordinates
+            int y = firstY + j * scale;
+            String yLabel = Integer.toString(y); // the y-coordinate
+            Arrays.fill(row, 0, maxYLen - yLabel.length(), ' ');
+            yLabel.getChars(0, yLabel.length(), row, maxYLen - yLabel.length());
+            row[maxYLen] = '|';
+
+            int position = maxYLen + 1;
+            for (int i = 0; i < columns; i++){ // x-coordinates
+                char[] cell = kindCells[kinds.kindAt(firstX + i * scale, y)]; // obstacles are drawn over routes
+
+                System.arraycopy(cell, 0, row, position, cell.length);
+                position += cell.length;
             }
-            System.out.println();
+
+            writer.write(row, 0, position);
+            writer.write(lineSeparator);
         }
-        System.out.println();
+        writer.write(lineSeparator);
+    }
 
-        checkMapPrinter();
+    /**
+     * Appends a value right-aligned in a field, as the {@code %<width>s} format would.
+     * @param builder the builder to append to. Must not be {@code null}.
+     * @param value the value to append. Must not be {@code null}.
+     * @param fieldWidth the minimum number of characters to append.
+     * @return the builder, for chaining.
+     */
+    private static StringBuilder pad(StringBuilder builder, String value, int fieldWidth){
+        for(int i = value.length(); i < fieldWidth; i++)
+            builder.append(' ');
+
+        return builder.append(value);
+    }
+
+    /**
+     * @return a writer buffering the whole print into as few writes to the output stream as possible.
+     * @implNote the writer is flushed, never closed, so that the output stream stays open.
+     */
+    private PrintWriter newWriter(){
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out), BUFFER_SIZE), false);
     }
 
     /**
@@ -154,5 +285,6 @@ public class MapPrinter {
      */
     private void checkMapPrinter(){
         Preconditions.checkNotNull(map, "map cannot be null.");
+        Preconditions.checkNotNull(out, "out cannot be null.");
     }
 }
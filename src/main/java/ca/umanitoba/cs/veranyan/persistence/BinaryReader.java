@@ -0,0 +1,172 @@
+package ca.umanitoba.cs.veranyan.persistence;
+
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Reads the primitive values written by {@link BinaryWriter} from a buffer, such as a memory-mapped file.
+ */
+class BinaryReader {
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor for BinaryReader.
+     * @param buffer the buffer to read from, positioned at the first value. Must not be {@code null}.
+     */
+    BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        checkBinaryReader();
+    }
+
+    /**
+     * @return true if there are values left to read; false otherwise.
+     */
+    boolean hasRemaining() {
+        return buffer.hasRemaining();
+    }
+
+    /**
+     * @return the position of the next value, in bytes from the start of the buffer.
+     */
+    int position() {
+        return buffer.position();
+    }
+
+    /**
+     * @return the number of bytes left to read.
+     */
+    int remaining() {
+        return buffer.remaining();
+    }
+
+    /**
+     * Reads the next bytes as a buffer of their own.
+     * @param length the number of bytes to read. Must not be more than the bytes left to read.
+     * @return a buffer over the bytes, positioned at the first one. Must not be {@code null}.
+     */
+    ByteBuffer readSlice(int length) {
+        ByteBuffer slice = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+
+        return slice;
+    }
+
+    /**
+     * @return the next 4-byte big-endian integer.
+     */
+    int readFixedInt() {
+        return buffer.getInt();
+    }
+
+    /**
+     * @return the next byte, as an unsigned value.
+     */
+    int readByte() {
+        return buffer.get() & 0xFF;
+    }
+
+    /**
+     * @return the next non-negative varint.
+     */
+    long readVarint() {
+        long value = 0;
+        int shift = 0;
+        byte next;
+
+        do {
+            Preconditions.checkState(shift < 64, "varint is too long.");
+            next = buffer.get();
+            value |= (long) (next & 0x7F) << shift;
+            shift += 7;
+        } while((next & 0x80) != 0);
+
+        return value;
+    }
+
+    /**
+     * @param bound the exclusive upper bound of the value.
+     * @return the next varint, which must be less than bound.
+     */
+    int readInt(int bound) {
+        long value = readVarint();
+        Preconditions.checkState(value < bound, "value is out of range.");
+
+        return (int) value;
+    }
+
+    /**
+     * @return the next zigzag-encoded varint.
+     */
+    long readSignedVarint() {
+        long value = readVarint();
+
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @return the next floating-point number.
+     */
+    double readDouble() {
+        return buffer.getDouble();
+    }
+
+    /**
+     * @return the next string. Must not be {@code null}.
+     */
+    String readString() {
+        int length = readInt(Integer.MAX_VALUE);
+        Preconditions.checkState(length <= buffer.remaining(), "string is out of range.");
+
+        String value;
+        if(buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        }
+        else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return value;
+    }
+
+    /**
+     * @param previous the date-time the value was written relative to. Must not be {@code null}.
+     * @return the next date-time. Must not be {@code null}.
+     */
+    LocalDateTime readDateTime(LocalDateTime previous) {
+        long seconds = previous.toEpochSecond(ZoneOffset.UTC) + readSignedVarint();
+
+        return LocalDateTime.ofEpochSecond(seconds, readInt(1_000_000_000), ZoneOffset.UTC);
+    }
+
+    /**
+     * @return the next Route, rebuilt by replaying its segments as moves. Must not be {@code null}.
+     */
+    Route readRoute() {
+        Route route = new Route(readInt(Integer.MAX_VALUE), readInt(Integer.MAX_VALUE));
+        int segmentsAmount = readInt(Integer.MAX_VALUE);
+
+        for(int i = 0; i < segmentsAmount; i++) {
+            long segment = readVarint();
+            Preconditions.checkState(segment >>> 2 > 0 && segment >>> 2 <= Integer.MAX_VALUE, "segment is out of range.");
+            route.move((int) (segment & 3) + 1, (int) (segment >>> 2));
+        }
+
+        return route;
+    }
+
+    /**
+     * Ensures BinaryReader invariants are not violated.
+     */
+    private void checkBinaryReader() {
+        Preconditions.checkNotNull(buffer, "buffer cannot be null.");
+    }
+}
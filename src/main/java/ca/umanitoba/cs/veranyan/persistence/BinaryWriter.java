@@ -0,0 +1,193 @@
+package ca.umanitoba.cs.veranyan.persistence;
+
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Writes the primitive values of the binary storage format to a channel, through a buffer.
+ * Integers are written as varints: 7 bits per byte, least significant group first, with the high bit
+ * of each byte set when more bytes follow. Signed integers are zigzag-encoded first so that small
+ * negative values stay short.
+ */
+class BinaryWriter {
+    private static final int BUFFER_SIZE = 1 << 16; // size of the buffer, in bytes
+    private static final int MAX_VALUE_SIZE = 10; // largest number of bytes of a single value (a 64-bit varint)
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor for BinaryWriter.
+     * @param channel the channel to write to. Must not be {@code null}.
+     */
+    BinaryWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        checkBinaryWriter();
+    }
+
+    /**
+     * @param value the byte to write.
+     */
+    void writeByte(int value) throws IOException {
+        ensureRemaining();
+        buffer.put((byte) value);
+    }
+
+    /**
+     * @param value the non-negative integer to write, as a varint.
+     */
+    void writeVarint(long value) throws IOException {
+        Preconditions.checkState(value >= 0, "value cannot be negative.");
+        ensureRemaining();
+
+        while((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * @param value the integer to write, as a zigzag-encoded varint.
+     */
+    void writeSignedVarint(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * @param value the floating-point number to write, as its 8 IEEE 754 bytes.
+     */
+    void writeDouble(double value) throws IOException {
+        ensureRemaining();
+        buffer.putDouble(value);
+    }
+
+    /**
+     * @param value the integer to write, as its 4 big-endian bytes.
+     */
+    void writeFixedInt(int value) throws IOException {
+        ensureRemaining();
+        buffer.putInt(value);
+    }
+
+    /**
+     * @param bytes the bytes to write. Must not be {@code null}.
+     * @param offset the index of the first byte to write.
+     * @param length the number of bytes to write.
+     */
+    void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        // long arrays are copied through the buffer in chunks
+        for(int end = offset + length; offset < end; ) {
+            if(!buffer.hasRemaining())
+                drain();
+
+            int chunk = Math.min(buffer.remaining(), end - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    /**
+     * @param value the string to write, as its UTF-8 length and bytes. Must not be {@code null}.
+     */
+    void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param value the date-time to write, as epoch seconds (read as UTC) and nanoseconds. Must not be {@code null}.
+     * @param previous the date-time the seconds are written relative to, to keep them short.
+     *                 Must not be {@code null}.
+     */
+    void writeDateTime(LocalDateTime value, LocalDateTime previous) throws IOException {
+        writeSignedVarint(value.toEpochSecond(ZoneOffset.UTC) - previous.toEpochSecond(ZoneOffset.UTC));
+        writeVarint(value.getNano());
+    }
+
+    /**
+     * Writes a Route as its starting point followed by its segments, one (direction, steps) run each.
+     * @param route the Route to write. Must not be {@code null}.
+     */
+    void writeRoute(Route route) throws IOException {
+        var start = route.getCoordinate(0);
+        int segmentsAmount = route.getSegmentsAmount();
+
+        writeVarint(start.x());
+        writeVarint(start.y());
+        writeVarint(segmentsAmount);
+
+        // the direction (0 to 3) is packed into the two low bits of the step count
+        for(int i = 0; i < segmentsAmount; i++)
+            writeVarint(((long) route.getSegmentSteps(i) << 2) | (route.getSegmentDirection(i) - 1));
+    }
+
+    /**
+     * @param route the Route to measure. Must not be {@code null}.
+     * @return the number of bytes {@link #writeRoute(Route)} writes for the Route.
+     */
+    static int routeSize(Route route) {
+        var start = route.getCoordinate(0);
+        int segmentsAmount = route.getSegmentsAmount();
+        int size = varintSize(start.x()) + varintSize(start.y()) + varintSize(segmentsAmount);
+
+        for(int i = 0; i < segmentsAmount; i++)
+            size += varintSize(((long) route.getSegmentSteps(i) << 2) | (route.getSegmentDirection(i) - 1));
+
+        return size;
+    }
+
+    /**
+     * @param value the non-negative integer to measure.
+     * @return the number of bytes of the value as a varint.
+     */
+    static int varintSize(long value) {
+        // 7 bits per byte, and at least one byte for 0
+        return Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+    }
+
+    /**
+     * Writes everything buffered to the channel.
+     */
+    void flush() throws IOException {
+        drain();
+
+        checkBinaryWriter();
+    }
+
+    /**
+     * Makes room in the buffer for at least one value.
+     */
+    private void ensureRemaining() throws IOException {
+        if(buffer.remaining() < MAX_VALUE_SIZE)
+            drain();
+    }
+
+    /**
+     * Writes the contents of the buffer to the channel and empties it.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Ensures BinaryWriter invariants are not violated.
+     */
+    private void checkBinaryWriter() {
+        Preconditions.checkNotNull(channel, "channel cannot be null.");
+        Preconditions.checkNotNull(buffer, "buffer cannot be null.");
+    }
+}
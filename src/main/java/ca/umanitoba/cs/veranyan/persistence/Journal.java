@@ -0,0 +1,609 @@
+package ca.umanitoba.cs.veranyan.persistence;
+
+import ca.umanitoba.cs.veranyan.logic.ProfileRegistry;
+import ca.umanitoba.cs.veranyan.logic.ProfileSession;
+import ca.umanitoba.cs.veranyan.model.Activity;
+import ca.umanitoba.cs.veranyan.model.Profile;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.map.Map;
+import ca.umanitoba.cs.veranyan.model.map.Obstacle;
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the changes made to a {@link ProfileRegistry}, on top of a snapshot written by
+ * {@link SnapshotWriter}. Each change is recorded by calling the matching method after making it, which
+ * appends a small record to a buffer instead of rewriting the snapshot.
+ * <p>
+ * Records are forced to disk in batches: after {@link #SYNC_BATCH} records, on {@link #sync()} and on
+ * {@link #close()}, so a crash loses at most the records since the last batch. Once the log outgrows
+ * {@link #COMPACTION_THRESHOLD} bytes it is compacted: the registry is written as a new snapshot and the log
+ * is emptied. If that fails, records keep being appended to the log and compaction is tried again once the log
+ * has grown by another COMPACTION_THRESHOLD bytes (see {@link #getCompactionFailure()}). {@link #open(Path, Path)} recovers the registry by reading the snapshot and replaying the log.
+ * @implNote every record is framed as its length, its bytes and their CRC-32, and carries a sequence number.
+ * Replay stops at the first incomplete or damaged record (one torn by a crash) and cuts it off the log.
+ * Records already included in the snapshot, left over if a crash happened during compaction, are skipped.
+ * Profiles are identified by name and Activities by their start time.
+ */
+public class Journal implements Closeable {
+    public static final int SYNC_BATCH = 64; // number of records appended between forcing the log to disk
+    public static final long COMPACTION_THRESHOLD = 4 << 20; // log size, in bytes, from which the log is compacted
+
+    // record types
+    private static final int PROFILE_ADDED = 1;
+    private static final int GEAR_ADDED = 2;
+    private static final int GEAR_REMOVED = 3;
+    private static final int MAP_ADDED = 4;
+    private static final int MAP_REMOVED = 5;
+    private static final int OBSTACLE_ADDED = 6;
+    private static final int OBSTACLE_REMOVED = 7;
+    private static final int ACTIVITY_STARTED = 8;
+    private static final int ROUTE_MOVED = 9;
+    private static final int ACTIVITY_ENDED = 10;
+    private static final int ACTIVITY_REMOVED = 11;
+    private static final int PROFILE_REPLACED = 12;
+
+    private final Path snapshotPath;
+    private final FileChannel log;
+    private final BinaryWriter logWriter;
+    private final ProfileRegistry registry;
+    private long sequence; // the sequence number of the last record
+    private long logSize; // the size of the log, including buffered records
+    private int unsyncedRecords; // number of records appended since the log was last forced to disk
+    private long compactionSize; // the log size from which the log is next compacted
+    private IOException compactionFailure; // the failure of the last compaction due to the log size. May be null
+
+    // each record is encoded here first, so that its length and checksum can be written before it
+    private final RecordBuffer record;
+    private final BinaryWriter recordWriter;
+    private final CRC32 checksum;
+
+    /**
+     * The encoded bytes of a record.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        /**
+         * @return the buffer holding the bytes written so far, from index 0.
+         */
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    /**
+     * Recovers a ProfileRegistry from a snapshot and a log, and opens the log to record further changes.
+     * @param snapshotPath the snapshot file. A missing snapshot stands for an empty registry. Must not be {@code null}.
+     * @param logPath the log file. A missing log is created. Must not be {@code null}.
+     * @return the Journal, whose {@link #getRegistry()} is the recovered ProfileRegistry. Must not be {@code null}.
+     * @throws IOException if the snapshot or the log cannot be read, or the log cannot be opened.
+     */
+    public static Journal open(Path snapshotPath, Path logPath) throws IOException {
+        Preconditions.checkNotNull(snapshotPath, "snapshotPath cannot be null.");
+        Preconditions.checkNotNull(logPath, "logPath cannot be null.");
+
+        ProfileRegistry registry = new ProfileRegistry();
+        long sequence = 0;
+        if(Files.exists(snapshotPath)) {
+            SnapshotReader snapshot = new SnapshotReader(snapshotPath);
+            registry = snapshot.read();
+            sequence = snapshot.getSequence();
+        }
+
+        FileChannel log = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        Journal journal;
+        try {
+            // records past the last intact one were torn by a crash and are cut off
+            long[] replayed = replay(log, registry, sequence);
+            log.truncate(replayed[1]);
+            log.position(replayed[1]);
+
+            journal = new Journal(snapshotPath, log, registry, replayed[0], replayed[1]);
+        }
+        catch(IOException | RuntimeException e) {
+            log.close();
+            throw e;
+        }
+
+        return journal;
+    }
+
+    /**
+     * Constructor for Journal.
+     * @param snapshotPath the snapshot file the log is compacted into. Must not be {@code null}.
+     * @param log the open log, positioned at its end. Must not be {@code null}.
+     * @param registry the ProfileRegistry whose changes are recorded. Must not be {@code null}.
+     * @param sequence the sequence number of the last record in the snapshot or the log.
+     * @param logSize the size of the log, in bytes.
+     */
+    private Journal(Path snapshotPath, FileChannel log, ProfileRegistry registry, long sequence, long logSize) {
+        this.snapshotPath = snapshotPath;
+        this.log = log;
+        this.logWriter = new BinaryWriter(log);
+        this.registry = registry;
+        this.sequence = sequence;
+        this.logSize = logSize;
+        this.compactionSize = COMPACTION_THRESHOLD;
+        this.record = new RecordBuffer();
+        this.recordWriter = new BinaryWriter(Channels.newChannel(record));
+        this.checksum = new CRC32();
+
+        checkJournal();
+    }
+
+    /**
+     * @return the ProfileRegistry whose changes are recorded. Must not be {@code null}.
+     */
+    public ProfileRegistry getRegistry() {
+        checkJournal();
+
+        return registry;
+    }
+
+    /**
+     * Records that a Profile was added to the registry.
+     * @param profile the added Profile, recorded with its first Gear only. Must not be {@code null}.
+     */
+    public void profileAdded(Profile profile) throws IOException {
+        beginRecord(PROFILE_ADDED);
+        recordWriter.writeString(profile.getName());
+        SnapshotWriter.writeGear(recordWriter, profile.getGear(0));
+        endRecord();
+    }
+
+    /**
+     * Records that a Profile was replaced through {@link ProfileSession#replaceCurrentProfile(Profile)},
+     * such as to rename it.
+     * @param current the replaced Profile. Must not be {@code null}.
+     * @param replacement the Profile that replaced it, recorded as a copy of current under its own name, with
+     *                    the Gears and the Map of current. Must not be {@code null}.
+     */
+    public void profileReplaced(Profile current, Profile replacement) throws IOException {
+        beginRecord(PROFILE_REPLACED);
+        recordWriter.writeString(current.getName());
+        recordWriter.writeString(replacement.getName());
+        endRecord();
+    }
+
+    /**
+     * Records that a Gear was added to a Profile.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param gear the added Gear. Must not be {@code null}.
+     */
+    public void gearAdded(Profile profile, Gear gear) throws IOException {
+        beginRecord(GEAR_ADDED);
+        recordWriter.writeString(profile.getName());
+        SnapshotWriter.writeGear(recordWriter, gear);
+        endRecord();
+    }
+
+    /**
+     * Records that a Gear was removed from a Profile.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param index the index the removed Gear had.
+     */
+    public void gearRemoved(Profile profile, int index) throws IOException {
+        beginRecord(GEAR_REMOVED);
+        recordWriter.writeString(profile.getName());
+        recordWriter.writeVarint(index);
+        endRecord();
+    }
+
+    /**
+     * Records that a Map was added to a Profile.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param map the added Map, without Obstacles or Activities. Must not be {@code null}.
+     */
+    public void mapAdded(Profile profile, Map map) throws IOException {
+        beginRecord(MAP_ADDED);
+        recordWriter.writeString(profile.getName());
+        recordWriter.writeVarint(map.getWidth());
+        recordWriter.writeVarint(map.getLength());
+        endRecord();
+    }
+
+    /**
+     * Records that the Map of a Profile was removed.
+     * @param profile the Profile. Must not be {@code null}.
+     */
+    public void mapRemoved(Profile profile) throws IOException {
+        beginRecord(MAP_REMOVED);
+        recordWriter.writeString(profile.getName());
+        endRecord();
+    }
+
+    /**
+     * Records that an Obstacle was added to the Map of a Profile.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param obstacle the added Obstacle. Must not be {@code null}.
+     */
+    public void obstacleAdded(Profile profile, Obstacle obstacle) throws IOException {
+        beginRecord(OBSTACLE_ADDED);
+        recordWriter.writeString(profile.getName());
+        SnapshotWriter.writeObstacle(recordWriter, obstacle);
+        endRecord();
+    }
+
+    /**
+     * Records that an Obstacle was removed from the Map of a Profile.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param index the index the removed Obstacle had.
+     */
+    public void obstacleRemoved(Profile profile, int index) throws IOException {
+        beginRecord(OBSTACLE_REMOVED);
+        recordWriter.writeString(profile.getName());
+        recordWriter.writeVarint(index);
+        endRecord();
+    }
+
+    /**
+     * Records that an Activity was added to the Map of a Profile.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param activity the added Activity, with its Route so far. Must not be {@code null}.
+     */
+    public void activityStarted(Profile profile, Activity activity) throws IOException {
+        beginRecord(ACTIVITY_STARTED);
+        recordWriter.writeString(profile.getName());
+        recordWriter.writeDateTime(activity.getStart(), SnapshotWriter.EPOCH);
+        SnapshotWriter.writeGear(recordWriter, activity.getGear());
+        recordWriter.writeRoute(activity.getRoute());
+        endRecord();
+    }
+
+    /**
+     * Records a move of the Route of an Activity.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param activity the Activity whose Route moved. Must not be {@code null}.
+     * @param direction the direction of the move, as passed to {@link Route#move(int, int)}.
+     * @param steps the number of steps of the move, as passed to {@link Route#move(int, int)}.
+     */
+    public void routeMoved(Profile profile, Activity activity, int direction, int steps) throws IOException {
+        beginRecord(ROUTE_MOVED);
+        recordWriter.writeString(profile.getName());
+        recordWriter.writeDateTime(activity.getStart(), SnapshotWriter.EPOCH);
+        recordWriter.writeVarint(direction);
+        recordWriter.writeVarint(steps);
+        endRecord();
+    }
+
+    /**
+     * Records that an Activity ended.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param activity the ended Activity. Must not be {@code null}.
+     */
+    public void activityEnded(Profile profile, Activity activity) throws IOException {
+        Preconditions.checkNotNull(activity.getEnd(), "activity must have ended.");
+
+        beginRecord(ACTIVITY_ENDED);
+        recordWriter.writeString(profile.getName());
+        recordWriter.writeDateTime(activity.getStart(), SnapshotWriter.EPOCH);
+        recordWriter.writeDateTime(activity.getEnd(), activity.getStart());
+        endRecord();
+    }
+
+    /**
+     * Records that an Activity was removed from the Map of a Profile.
+     * @param profile the Profile. Must not be {@code null}.
+     * @param index the index the removed Activity had.
+     */
+    public void activityRemoved(Profile profile, int index) throws IOException {
+        beginRecord(ACTIVITY_REMOVED);
+        recordWriter.writeString(profile.getName());
+        recordWriter.writeVarint(index);
+        endRecord();
+    }
+
+    /**
+     * Forces all the records appended so far to disk.
+     */
+    public void sync() throws IOException {
+        checkJournal();
+
+        logWriter.flush();
+        log.force(false);
+        unsyncedRecords = 0;
+
+        checkJournal();
+    }
+
+    /**
+     * Writes the registry as a new snapshot and empties the log.
+     * @throws IOException if the snapshot cannot be written, such as when the snapshot the registry was read
+     * from is still memory-mapped on a platform that locks mapped files (see {@link SnapshotWriter}). The log
+     * is then kept as it is.
+     */
+    public void compact() throws IOException {
+        sync();
+        writeSnapshot();
+    }
+
+    /**
+     * @return the failure of the last compaction started because the log outgrew its threshold, or {@code null}
+     * if it succeeded or none was started since the last successful compaction. Records are still appended to
+     * the log after such a failure, so they are not lost.
+     */
+    public IOException getCompactionFailure() {
+        checkJournal();
+
+        return compactionFailure;
+    }
+
+    /**
+     * Writes the registry as a new snapshot and empties the log, which must be forced to disk already.
+     */
+    private void writeSnapshot() throws IOException {
+        // a crash before the log is emptied is harmless: its records are in the snapshot and skipped on replay
+        new SnapshotWriter(snapshotPath).write(registry, sequence);
+        log.truncate(0);
+        log.position(0);
+        logSize = 0;
+        compactionSize = COMPACTION_THRESHOLD;
+        compactionFailure = null;
+
+        checkJournal();
+    }
+
+    /**
+     * Forces the records appended so far to disk and closes the log.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            sync();
+        }
+        finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Starts encoding a record.
+     * @param type the type of the record.
+     */
+    private void beginRecord(int type) throws IOException {
+        checkJournal();
+        Preconditions.checkState(log.isOpen(), "journal is closed.");
+
+        record.reset();
+        recordWriter.writeVarint(sequence + 1);
+        recordWriter.writeByte(type);
+    }
+
+    /**
+     * Appends the encoded record to the log, then forces or compacts the log when it is due.
+     */
+    private void endRecord() throws IOException {
+        recordWriter.flush();
+        sequence++;
+
+        checksum.reset();
+        checksum.update(record.bytes(), 0, record.size());
+
+        logWriter.writeVarint(record.size());
+        logWriter.writeBytes(record.bytes(), 0, record.size());
+        logWriter.writeFixedInt((int) checksum.getValue());
+        logSize += BinaryWriter.varintSize(record.size()) + record.size() + Integer.BYTES;
+        unsyncedRecords++;
+
+        boolean isCompactionDue = logSize >= compactionSize;
+        if(isCompactionDue || unsyncedRecords >= SYNC_BATCH)
+            sync();
+
+        if(isCompactionDue) {
+            try {
+                writeSnapshot();
+            }
+            catch(IOException e) {
+                // the records are safe in the log, so recording goes on and compaction is tried again later
+                compactionFailure = e;
+                compactionSize = logSize + COMPACTION_THRESHOLD;
+            }
+        }
+
+        checkJournal();
+    }
+
+    /**
+     * Applies the intact records of a log that are not in the snapshot to a registry.
+     * @param log the log, read from its start. Must not be {@code null}.
+     * @param registry the registry read from the snapshot. Must not be {@code null}.
+     * @param snapshotSequence the sequence number of the last record in the snapshot.
+     * @return the sequence number of the last record applied (or in the snapshot), and the size of the
+     * intact part of the log.
+     */
+    private static long[] replay(FileChannel log, ProfileRegistry registry, long snapshotSequence) throws IOException {
+        // the log is kept small by compaction, so it is read whole rather than mapped, which would keep it from
+        // being truncated on some platforms
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(log.size()));
+        int read = 0;
+        while(buffer.hasRemaining() && read >= 0)
+            read = log.read(buffer, buffer.position());
+        buffer.flip();
+
+        BinaryReader reader = new BinaryReader(buffer);
+        CRC32 checksum = new CRC32();
+        long sequence = snapshotSequence;
+        long intactSize = 0;
+
+        ByteBuffer bytes = nextRecord(reader, checksum);
+        while(bytes != null) {
+            BinaryReader recordReader = new BinaryReader(bytes);
+            long recordSequence = recordReader.readVarint();
+
+            // records at or before the snapshot were left over from an interrupted compaction
+            if(recordSequence > sequence) {
+                apply(recordReader, registry);
+                sequence = recordSequence;
+            }
+            intactSize = reader.position();
+
+            bytes = nextRecord(reader, checksum);
+        }
+
+        return new long[]{sequence, intactSize};
+    }
+
+    /**
+     * Reads the frame of the next record of a log.
+     * @param reader the reader positioned at the frame. Must not be {@code null}.
+     * @param checksum the checksum to verify the record with. Must not be {@code null}.
+     * @return the bytes of the record, or {@code null} at the end of the log or if the record was torn by a crash.
+     */
+    private static ByteBuffer nextRecord(BinaryReader reader, CRC32 checksum) {
+        ByteBuffer bytes = null;
+
+        try {
+            if(reader.hasRemaining()) {
+                int length = reader.readInt(Integer.MAX_VALUE);
+
+                if(length <= reader.remaining() - Integer.BYTES) {
+                    bytes = reader.readSlice(length);
+                    checksum.reset();
+                    checksum.update(bytes.duplicate());
+
+                    if((int) checksum.getValue() != reader.readFixedInt())
+                        bytes = null;
+                }
+            }
+        }
+        catch(BufferUnderflowException | IllegalStateException e) {
+            // a length cut short by a crash
+            bytes = null;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Applies a record to a registry.
+     * @param reader the reader positioned at the type of the record. Must not be {@code null}.
+     * @param registry the registry to apply the record to. Must not be {@code null}.
+     */
+    private static void apply(BinaryReader reader, ProfileRegistry registry) {
+        int type = reader.readByte();
+        String name = reader.readString();
+
+        if(type == PROFILE_ADDED)
+            Preconditions.checkState(registry.addProfile(new Profile(name, SnapshotReader.readGear(reader))),
+                    "profile names cannot be duplicated.");
+        else {
+            Profile profile = findProfile(registry, name);
+
+            switch(type) {
+                case GEAR_ADDED:
+                    profile.addGear(SnapshotReader.readGear(reader));
+                    break;
+                case GEAR_REMOVED:
+                    profile.removeGear(reader.readInt(Integer.MAX_VALUE));
+                    break;
+                case MAP_ADDED:
+                    int width = reader.readInt(Integer.MAX_VALUE);
+                    int length = reader.readInt(Integer.MAX_VALUE);
+                    profile.addMap(new Map(width, length));
+                    break;
+                case MAP_REMOVED:
+                    profile.removeMap();
+                    break;
+                case OBSTACLE_ADDED:
+                    profile.getMap().addObstacles(List.of(SnapshotReader.readObstacle(reader)));
+                    break;
+                case OBSTACLE_REMOVED:
+                    profile.getMap().removeObstacle(reader.readInt(Integer.MAX_VALUE));
+                    break;
+                case ACTIVITY_STARTED:
+                    LocalDateTime start = reader.readDateTime(SnapshotWriter.EPOCH);
+                    Gear gear = SnapshotReader.readGear(reader);
+                    profile.getMap().addActivity(new Activity(gear, reader.readRoute(), start, null));
+                    break;
+                case ROUTE_MOVED:
+                    Route route = findActivity(profile, reader.readDateTime(SnapshotWriter.EPOCH)).getRoute();
+                    route.move(reader.readInt(Integer.MAX_VALUE), reader.readInt(Integer.MAX_VALUE));
+                    break;
+                case ACTIVITY_ENDED:
+                    Activity activity = findActivity(profile, reader.readDateTime(SnapshotWriter.EPOCH));
+                    activity.endActivity(reader.readDateTime(activity.getStart()));
+                    break;
+                case ACTIVITY_REMOVED:
+                    profile.getMap().removeActivity(reader.readInt(Integer.MAX_VALUE));
+                    break;
+                case PROFILE_REPLACED:
+                    replaceProfile(registry, profile, reader.readString());
+                    break;
+                default:
+                    throw new IllegalStateException("record type is not supported.");
+            }
+        }
+    }
+
+    /**
+     * @param registry the registry to search. Must not be {@code null}.
+     * @param name the name of the Profile. Must not be {@code null}.
+     * @return the Profile with the name, ignoring case. Must not be {@code null}.
+     */
+    private static Profile findProfile(ProfileRegistry registry, String name) {
+        Profile found = registry.findProfile(name);
+        Preconditions.checkNotNull(found, "profile of a record must exist.");
+
+        return found;
+    }
+
+    /**
+     * Replaces a registered Profile with a copy of it under another name, moving it to its new name in the registry.
+     * @param registry the registry of the Profile. Must not be {@code null}.
+     * @param current the registered Profile to replace. Must not be {@code null}.
+     * @param name the name of the replacement. Must not be {@code null}.
+     */
+    private static void replaceProfile(ProfileRegistry registry, Profile current, String name) {
+        Profile replacement = new Profile(name, current.getGear(0));
+        for(var gear : current.getGears())
+            replacement.addGear(gear);
+        if(current.getMap() != null)
+            replacement.addMap(current.getMap());
+
+        // the session of the local user follows the replacement if it had current loaded
+        ProfileSession session = registry.getDefaultSession();
+        if(!session.hasCurrentProfile() || session.getCurrentProfile() != current) {
+            session = registry.openSession();
+            session.loadProfile(current);
+        }
+        Preconditions.checkState(!session.replaceCurrentProfile(replacement), "profile names cannot be duplicated.");
+    }
+
+    /**
+     * @param profile the Profile whose Map is searched. Must not be {@code null}.
+     * @param start the start time of the Activity. Must not be {@code null}.
+     * @return the Activity on the Map of the Profile with the start time. Must not be {@code null}.
+     */
+    private static Activity findActivity(Profile profile, LocalDateTime start) {
+        var matches = profile.getMap().activitiesBetween(start, start.plusNanos(1));
+        Preconditions.checkState(matches.size() == 1, "activity of a record must exist.");
+
+        return matches.get(0);
+    }
+
+    /**
+     * Ensures Journal invariants are not violated.
+     */
+    private void checkJournal() {
+        Preconditions.checkNotNull(snapshotPath, "snapshotPath cannot be null.");
+        Preconditions.checkNotNull(log, "log cannot be null.");
+        Preconditions.checkNotNull(registry, "registry cannot be null.");
+        Preconditions.checkState(sequence >= 0, "sequence cannot be negative.");
+        Preconditions.checkState(logSize >= 0, "logSize cannot be negative.");
+        Preconditions.checkState(compactionSize >= COMPACTION_THRESHOLD, "compactionSize cannot be below the threshold.");
+    }
+}
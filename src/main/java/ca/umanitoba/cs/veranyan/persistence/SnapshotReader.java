@@ -0,0 +1,213 @@
+package ca.umanitoba.cs.veranyan.persistence;
+
+import ca.umanitoba.cs.veranyan.logic.ProfileRegistry;
+import ca.umanitoba.cs.veranyan.model.Activity;
+import ca.umanitoba.cs.veranyan.model.Profile;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.gear.GearType;
+import ca.umanitoba.cs.veranyan.model.map.Bounds;
+import ca.umanitoba.cs.veranyan.model.map.Coordinate;
+import ca.umanitoba.cs.veranyan.model.map.Map;
+import ca.umanitoba.cs.veranyan.model.map.Obstacle;
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a {@link ProfileRegistry} back from a snapshot file written by {@link SnapshotWriter}.
+ * @implNote the file is memory-mapped and decoded in one pass. Each Gear of the Gear table is created
+ * once and shared by every Profile and Activity using it, and each Map once and shared by every Profile using it.
+ * <p>
+ * The Routes of ended Activities are not decoded while reading: each such Activity keeps its Route header and
+ * a slice of the mapping, and decodes the Route on first use (see {@link Activity#getRoute()}). The mapping
+ * stays alive until every such Route has been loaded or its Activity is no longer reachable; until then,
+ * platforms that lock memory-mapped files, such as Windows, do not allow the snapshot to be replaced.
+ */
+public class SnapshotReader {
+    private static final GearType[] GEAR_TYPES = GearType.values();
+
+    private final Path path;
+    private long sequence; // the sequence number of the last Journal record in the snapshot last read
+
+    /**
+     * Constructor for SnapshotReader.
+     * @param path the snapshot file to read. Must not be {@code null}.
+     */
+    public SnapshotReader(Path path){
+        this.path = path;
+
+        checkSnapshotReader();
+    }
+
+    /**
+     * Reads the ProfileRegistry from the snapshot.
+     * @return a new ProfileRegistry with the Profiles of the snapshot. Must not be {@code null}.
+     * @throws IOException if the snapshot cannot be read.
+     */
+    public ProfileRegistry read() throws IOException {
+        checkSnapshotReader();
+
+        MappedByteBuffer buffer;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        BinaryReader reader = new BinaryReader(buffer);
+        Preconditions.checkState(reader.readVarint() == SnapshotWriter.MAGIC, "file is not a snapshot.");
+        Preconditions.checkState(reader.readVarint() == SnapshotWriter.VERSION, "snapshot version is not supported.");
+        sequence = reader.readVarint();
+
+        Gear[] gears = new Gear[reader.readInt(Integer.MAX_VALUE)];
+        for(int i = 0; i < gears.length; i++)
+            gears[i] = readGear(reader);
+
+        Map[] maps = new Map[reader.readInt(Integer.MAX_VALUE)];
+        for(int i = 0; i < maps.length; i++)
+            maps[i] = readMap(reader, gears);
+
+        ProfileRegistry registry = new ProfileRegistry();
+        Profile[] profiles = new Profile[reader.readInt(Integer.MAX_VALUE)];
+        for(int i = 0; i < profiles.length; i++) {
+            String name = reader.readString();
+
+            int gearsAmount = reader.readInt(Integer.MAX_VALUE);
+            Preconditions.checkState(gearsAmount >= 1, "profile must have at least one gear.");
+            profiles[i] = new Profile(name, gears[reader.readInt(gears.length)]);
+            for(int j = 1; j < gearsAmount; j++)
+                profiles[i].addGear(gears[reader.readInt(gears.length)]);
+
+            int mapId = reader.readInt(maps.length + 1);
+            if(mapId != 0)
+                profiles[i].addMap(maps[mapId - 1]);
+
+            Preconditions.checkState(registry.addProfile(profiles[i]), "profile names cannot be duplicated.");
+        }
+
+        int currentId = reader.readInt(profiles.length + 1);
+        if(currentId != 0)
+            registry.loadProfile(profiles[currentId - 1]);
+
+        Preconditions.checkState(!reader.hasRemaining(), "snapshot has trailing data.");
+
+        return registry;
+    }
+
+    /**
+     * @return the sequence number of the last {@link Journal} record included in the snapshot last read,
+     * or 0 if it includes none.
+     */
+    long getSequence(){
+        return sequence;
+    }
+
+    /**
+     * @param reader the reader to read from. Must not be {@code null}.
+     * @return the next Gear. Must not be {@code null}.
+     */
+    static Gear readGear(BinaryReader reader) {
+        GearType type = GEAR_TYPES[reader.readInt(GEAR_TYPES.length)];
+        String name = reader.readString();
+
+        return new Gear(type, name, reader.readDouble());
+    }
+
+    /**
+     * Reads the next Map with its Obstacles and Activities.
+     * @param reader the reader to read from. Must not be {@code null}.
+     * @param gears the Gear table. Must not be {@code null}.
+     * @return the Map. Must not be {@code null}.
+     */
+    private static Map readMap(BinaryReader reader, Gear[] gears) {
+        int width = reader.readInt(Integer.MAX_VALUE);
+        int length = reader.readInt(Integer.MAX_VALUE);
+
+        Map map = new Map(width, length);
+
+        // each entry takes at least one byte, which bounds the lists of a damaged snapshot
+        int obstaclesAmount = reader.readInt(Integer.MAX_VALUE);
+        List<Obstacle> obstacles = new ArrayList<>(Math.min(obstaclesAmount, reader.remaining()));
+        for(int i = 0; i < obstaclesAmount; i++)
+            obstacles.add(readObstacle(reader));
+        map.addObstacles(obstacles);
+
+        int activitiesAmount = reader.readInt(Integer.MAX_VALUE);
+        List<Activity> activities = new ArrayList<>(Math.min(activitiesAmount, reader.remaining()));
+        LocalDateTime previous = SnapshotWriter.EPOCH;
+        for(int i = 0; i < activitiesAmount; i++) {
+            Activity activity = readActivity(reader, previous, gears);
+            activities.add(activity);
+            previous = activity.getStart();
+        }
+        map.addActivities(activities);
+
+        return map;
+    }
+
+    /**
+     * @param reader the reader to read from. Must not be {@code null}.
+     * @return the next Obstacle. Must not be {@code null}.
+     */
+    static Obstacle readObstacle(BinaryReader reader) {
+        int topLeftX = reader.readInt(Integer.MAX_VALUE);
+        int topLeftY = reader.readInt(Integer.MAX_VALUE);
+        int bottomRightX = Math.addExact(topLeftX, reader.readInt(Integer.MAX_VALUE));
+        int bottomRightY = Math.addExact(topLeftY, reader.readInt(Integer.MAX_VALUE));
+
+        return new Obstacle(new Coordinate(topLeftX, topLeftY), new Coordinate(bottomRightX, bottomRightY));
+    }
+
+    /**
+     * @param reader the reader to read from. Must not be {@code null}.
+     * @param previous the date-time the start was written relative to. Must not be {@code null}.
+     * @param gears the Gear table. Must not be {@code null}.
+     * @return the next Activity. Must not be {@code null}. The Route of an ended Activity is loaded on first use.
+     */
+    static Activity readActivity(BinaryReader reader, LocalDateTime previous, Gear[] gears) {
+        LocalDateTime start = reader.readDateTime(previous);
+        LocalDateTime end = (reader.readByte() == 0) ? null : reader.readDateTime(start);
+        Gear gear = gears[reader.readInt(gears.length)];
+
+        int stepsAmount = reader.readInt(Integer.MAX_VALUE);
+        int minX = reader.readInt(Integer.MAX_VALUE);
+        int minY = reader.readInt(Integer.MAX_VALUE);
+        Bounds bounds = new Bounds(minX, minY, Math.addExact(minX, reader.readInt(Integer.MAX_VALUE)),
+                Math.addExact(minY, reader.readInt(Integer.MAX_VALUE)));
+
+        int routeSize = reader.readInt(Integer.MAX_VALUE);
+        Preconditions.checkState(routeSize <= reader.remaining(), "route is out of range.");
+        ByteBuffer routeBytes = reader.readSlice(routeSize);
+
+        // an Activity that did not end can still move, so its Route is loaded now
+        return (end == null) ? new Activity(gear, readRoute(routeBytes), start, null) :
+                new Activity(gear, stepsAmount, bounds, () -> readRoute(routeBytes.duplicate()), start, end);
+    }
+
+    /**
+     * @param routeBytes the bytes of exactly one Route. Must not be {@code null}.
+     * @return the Route. Must not be {@code null}.
+     */
+    private static Route readRoute(ByteBuffer routeBytes) {
+        BinaryReader reader = new BinaryReader(routeBytes);
+        Route route = reader.readRoute();
+        Preconditions.checkState(!reader.hasRemaining(), "route has trailing data.");
+
+        return route;
+    }
+
+    /**
+     * Ensures SnapshotReader invariants are not violated.
+     */
+    private void checkSnapshotReader(){
+        Preconditions.checkNotNull(path, "path cannot be null.");
+    }
+}
@@ -0,0 +1,221 @@
+package ca.umanitoba.cs.veranyan.persistence;
+
+import ca.umanitoba.cs.veranyan.logic.ProfileRegistry;
+import ca.umanitoba.cs.veranyan.model.Activity;
+import ca.umanitoba.cs.veranyan.model.Profile;
+import ca.umanitoba.cs.veranyan.model.gear.Gear;
+import ca.umanitoba.cs.veranyan.model.map.Bounds;
+import ca.umanitoba.cs.veranyan.model.map.Map;
+import ca.umanitoba.cs.veranyan.model.map.Obstacle;
+import ca.umanitoba.cs.veranyan.model.map.Route;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Writes a {@link ProfileRegistry} with all its {@link Profile}, {@link Map}, {@link Obstacle},
+ * {@link Activity} and {@link Gear} instances to a binary snapshot file, read back by {@link SnapshotReader}.
+ * <p>
+ * The snapshot holds a table of the distinct Gears (each name written once), a table of the distinct Maps,
+ * then the Profiles, which refer to Gears and Maps by their position in the tables. Obstacles are written as
+ * their top-left corner and size, Activities by start time as epoch-second deltas from the previous Activity,
+ * and Routes as runs of (direction, steps). Each Route is preceded by a header (its number of steps, its
+ * bounds and its size in bytes) so that readers can skip it and load it on demand. All integers are varints.
+ * @implNote the snapshot is written to a temporary file through a {@link FileChannel}, then moved over the
+ * previous snapshot, so a failed write leaves the previous snapshot intact. Platforms that lock memory-mapped
+ * files, such as Windows, cannot replace a snapshot still mapped by a {@link SnapshotReader} (one whose Routes
+ * are not all loaded yet); writing over such a snapshot is not supported there and fails with an IOException.
+ */
+public class SnapshotWriter {
+    static final int MAGIC = 0x45545331; // "ETS1", the first value of every snapshot
+    static final int VERSION = 2; // version 2 adds a header to each Route so it can be skipped until needed
+    static final LocalDateTime EPOCH = LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC); // the first start is relative to it
+
+    private final Path path;
+
+    /**
+     * Constructor for SnapshotWriter.
+     * @param path the snapshot file to write. Must not be {@code null}.
+     */
+    public SnapshotWriter(Path path){
+        this.path = path;
+
+        checkSnapshotWriter();
+    }
+
+    /**
+     * Writes a snapshot of a ProfileRegistry, replacing the previous snapshot.
+     * @param registry the ProfileRegistry to write. Must not be {@code null}.
+     * @throws IOException if the snapshot cannot be written, or cannot replace the previous snapshot.
+     */
+    public void write(ProfileRegistry registry) throws IOException {
+        write(registry, 0);
+    }
+
+    /**
+     * Writes a snapshot of a ProfileRegistry that includes the {@link Journal} records up to a sequence number,
+     * replacing the previous snapshot.
+     * @param registry the ProfileRegistry to write. Must not be {@code null}.
+     * @param sequence the sequence number of the last Journal record applied to the registry. Must be non-negative.
+     * @throws IOException if the snapshot cannot be written, or cannot replace the previous snapshot.
+     */
+    void write(ProfileRegistry registry, long sequence) throws IOException {
+        checkSnapshotWriter();
+        Preconditions.checkNotNull(registry, "registry cannot be null.");
+
+        List<Profile> profiles = new ArrayList<>(registry.getProfiles());
+
+        // Gears and Maps are shared between Profiles and Activities, so each is written once and then referred to
+        LinkedHashMap<Gear, Integer> gearIds = new LinkedHashMap<>();
+        IdentityHashMap<Map, Integer> mapIds = new IdentityHashMap<>();
+        List<Map> maps = new ArrayList<>();
+        for(var profile : profiles) {
+            for(var gear : profile.getGears())
+                gearIds.putIfAbsent(gear, gearIds.size());
+
+            Map map = profile.getMap();
+            if(map != null && mapIds.putIfAbsent(map, maps.size()) == null) {
+                maps.add(map);
+                for(var activity : map.getActivities())
+                    gearIds.putIfAbsent(activity.getGear(), gearIds.size());
+            }
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try(FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            BinaryWriter writer = new BinaryWriter(channel);
+
+            writer.writeVarint(MAGIC);
+            writer.writeVarint(VERSION);
+            writer.writeVarint(sequence);
+
+            writer.writeVarint(gearIds.size());
+            for(var gear : gearIds.keySet())
+                writeGear(writer, gear);
+
+            writer.writeVarint(maps.size());
+            for(var map : maps)
+                writeMap(writer, map, gearIds);
+
+            writer.writeVarint(profiles.size());
+            for(var profile : profiles) {
+                writer.writeString(profile.getName());
+                writer.writeVarint(profile.getGears().size());
+                for(var gear : profile.getGears())
+                    writer.writeVarint(gearIds.get(gear));
+
+                // 0 for no Map, otherwise the position of the Map plus 1
+                writer.writeVarint((profile.getMap() == null) ? 0 : mapIds.get(profile.getMap()) + 1);
+            }
+
+            // 0 for no current Profile, otherwise its position plus 1
+            writer.writeVarint(registry.hasCurrentProfile() ? profiles.indexOf(registry.getCurrentProfile()) + 1 : 0);
+
+            writer.flush();
+            channel.force(false);
+        }
+
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException e) {
+            throw new IOException("snapshot cannot replace " + path + ", which may still be memory-mapped by a "
+                    + "SnapshotReader on a platform that locks mapped files.", e);
+        }
+
+        checkSnapshotWriter();
+    }
+
+    /**
+     * Writes a Gear as its type, name and average speed.
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param gear the Gear to write. Must not be {@code null}.
+     */
+    static void writeGear(BinaryWriter writer, Gear gear) throws IOException {
+        writer.writeVarint(gear.type().ordinal());
+        writer.writeString(gear.name());
+        writer.writeDouble(gear.avgSpeed());
+    }
+
+    /**
+     * Writes a Map as its dimensions, its Obstacles and its Activities in start order.
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param map the Map to write. Must not be {@code null}.
+     * @param gearIds the position of each Gear in the Gear table. Must contain the Gear of every Activity.
+     */
+    private static void writeMap(BinaryWriter writer, Map map, java.util.Map<Gear, Integer> gearIds) throws IOException {
+        writer.writeVarint(map.getWidth());
+        writer.writeVarint(map.getLength());
+
+        writer.writeVarint(map.getObstacles().size());
+        for(var obstacle : map.getObstacles())
+            writeObstacle(writer, obstacle);
+
+        writer.writeVarint(map.getActivities().size());
+        LocalDateTime previous = EPOCH;
+        for(var activity : map.getActivities()) {
+            writeActivity(writer, activity, previous, gearIds.get(activity.getGear()));
+            previous = activity.getStart();
+        }
+    }
+
+    /**
+     * Writes an Obstacle as its top-left corner and its size.
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param obstacle the Obstacle to write. Must not be {@code null}.
+     */
+    static void writeObstacle(BinaryWriter writer, Obstacle obstacle) throws IOException {
+        writer.writeVarint(obstacle.topLeftCoord().x());
+        writer.writeVarint(obstacle.topLeftCoord().y());
+        writer.writeVarint(obstacle.bottomRightCoord().x() - obstacle.topLeftCoord().x());
+        writer.writeVarint(obstacle.bottomRightCoord().y() - obstacle.topLeftCoord().y());
+    }
+
+    /**
+     * Writes an Activity as its start, its duration, its Gear, the header of its Route and its Route.
+     * @param writer the writer to write to. Must not be {@code null}.
+     * @param activity the Activity to write. Must not be {@code null}.
+     * @param previous the date-time the start is written relative to. Must not be {@code null}.
+     * @param gearId the position of the Gear of the Activity in the Gear table.
+     */
+    static void writeActivity(BinaryWriter writer, Activity activity, LocalDateTime previous, int gearId)
+            throws IOException {
+        writer.writeDateTime(activity.getStart(), previous);
+
+        // 0 for an Activity that did not end, otherwise 1 followed by the end relative to the start
+        writer.writeByte((activity.getEnd() == null) ? 0 : 1);
+        if(activity.getEnd() != null)
+            writer.writeDateTime(activity.getEnd(), activity.getStart());
+
+        writer.writeVarint(gearId);
+
+        // the header lets a reader build the Activity without reading its Route; a Route not loaded yet is read
+        // without being kept, so rewriting a snapshot does not load every Route of it into memory
+        Route route = activity.readRoute();
+        Bounds bounds = route.getBounds();
+        writer.writeVarint(route.getStepsAmount());
+        writer.writeVarint(bounds.minX());
+        writer.writeVarint(bounds.minY());
+        writer.writeVarint(bounds.maxX() - bounds.minX());
+        writer.writeVarint(bounds.maxY() - bounds.minY());
+        writer.writeVarint(BinaryWriter.routeSize(route));
+        writer.writeRoute(route);
+    }
+
+    /**
+     * Ensures SnapshotWriter invariants are not violated.
+     */
+    private void checkSnapshotWriter(){
+        Preconditions.checkNotNull(path, "path cannot be null.");
+        Preconditions.checkNotNull(path.getFileName(), "path must name a file.");
+    }
+}
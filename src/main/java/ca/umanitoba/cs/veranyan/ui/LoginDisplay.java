@@ -5,7 +5,6 @@ import ca.umanitoba.cs.veranyan.model.Profile;
 import ca.umanitoba.cs.veranyan.model.gear.Gear;
 import ca.umanitoba.cs.veranyan.output.ProfilePrinter;
 
-import java.util.Iterator;
 import java.util.Scanner;
 
 public class LoginDisplay {
@@ -71,14 +70,10 @@ public class LoginDisplay {
         // FIXME happy path (name matches)
         String name = keyboard.next();
 
-        Profile selectedProfile = null;
-
-        Iterator<Profile> iterator = profileRegistry.getProfiles().iterator();
-        while(iterator.hasNext() && selectedProfile == null){
-            Profile next = iterator.next();
-            if(next.getName().equals(name))
-                selectedProfile = next;
-        }
+        // names are unique ignoring case, so the only Profile that can match exactly is the one found
+        Profile selectedProfile = profileRegistry.findProfile(name);
+        if(selectedProfile != null && !selectedProfile.getName().equals(name))
+            selectedProfile = null;
 
         return selectedProfile;
     }